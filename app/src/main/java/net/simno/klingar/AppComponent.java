@@ -20,6 +20,7 @@ import net.simno.klingar.ui.BrowserController;
 import net.simno.klingar.ui.DetailController;
 import net.simno.klingar.ui.KlingarActivity;
 import net.simno.klingar.ui.LoginController;
+import net.simno.klingar.ui.MetricsController;
 import net.simno.klingar.ui.MiniPlayerController;
 import net.simno.klingar.ui.PlayerController;
 
@@ -27,8 +28,11 @@ public interface AppComponent {
   void inject(BrowserController controller);
   void inject(DetailController controller);
   void inject(LoginController controller);
+  void inject(MetricsController controller);
   void inject(MiniPlayerController controller);
   void inject(PlayerController controller);
   void inject(KlingarActivity activity);
   void inject(MusicService service);
+  void inject(KlingarGlideModule module);
+  void inject(KlingarApp app);
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+
+import net.simno.klingar.util.Metrics;
+
+import java.io.File;
+
+/** Glide caches that count hits and misses in {@link Metrics}. */
+final class ImageCaches {
+
+  static final String METRIC_MEMORY_HIT = "images.memory_hit";
+  static final String METRIC_MEMORY_MISS = "images.memory_miss";
+  static final String METRIC_DISK_HIT = "images.disk_lookup_hit";
+  static final String METRIC_DISK_MISS = "images.disk_lookup_miss";
+
+  private ImageCaches() {
+    // no instances
+  }
+
+  static final class MemoryCache extends LruResourceCache {
+
+    private final Metrics metrics;
+
+    MemoryCache(long size, Metrics metrics) {
+      super(size);
+      this.metrics = metrics;
+    }
+
+    /** Glide's engine takes resources out of the memory cache with remove, never with get. */
+    @Nullable @Override public synchronized Resource<?> remove(@NonNull Key key) {
+      Resource<?> resource = super.remove(key);
+      metrics.increment(resource != null ? METRIC_MEMORY_HIT : METRIC_MEMORY_MISS);
+      return resource;
+    }
+  }
+
+  static final class DiskCacheFactory implements DiskCache.Factory {
+
+    private final DiskCache.Factory factory;
+    private final Metrics metrics;
+
+    DiskCacheFactory(DiskCache.Factory factory, Metrics metrics) {
+      this.factory = factory;
+      this.metrics = metrics;
+    }
+
+    @Nullable @Override public DiskCache build() {
+      DiskCache cache = factory.build();
+      return cache != null ? new MeteredDiskCache(cache, metrics) : null;
+    }
+  }
+
+  /**
+   * Counts every disk cache lookup, not every image load. Glide first looks for the transformed
+   * resource and then for the source data, so a load that is served from the cached source counts
+   * as one miss and one hit.
+   */
+  static final class MeteredDiskCache implements DiskCache {
+
+    private final DiskCache cache;
+    private final Metrics metrics;
+
+    MeteredDiskCache(DiskCache cache, Metrics metrics) {
+      this.cache = cache;
+      this.metrics = metrics;
+    }
+
+    @Nullable @Override public File get(Key key) {
+      File file = cache.get(key);
+      metrics.increment(file != null ? METRIC_DISK_HIT : METRIC_DISK_MISS);
+      return file;
+    }
+
+    @Override public void put(Key key, Writer writer) {
+      cache.put(key, writer);
+    }
+
+    @Override public void delete(Key key) {
+      cache.delete(key);
+    }
+
+    @Override public void clear() {
+      cache.clear();
+    }
+  }
+}
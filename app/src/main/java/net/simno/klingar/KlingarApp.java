@@ -18,13 +18,17 @@ package net.simno.klingar;
 import android.app.Application;
 import android.content.Context;
 
+import net.simno.klingar.data.download.DownloadManager;
 import net.simno.klingar.util.DebugTree;
 
+import javax.inject.Inject;
+
 import timber.log.Timber;
 
 public class KlingarApp extends Application {
 
   private final AppComponent appComponent = createComponent();
+  @Inject DownloadManager downloadManager;
 
   public static KlingarApp get(Context context) {
     return (KlingarApp) context.getApplicationContext();
@@ -35,6 +39,9 @@ public class KlingarApp extends Application {
     if (BuildConfig.DEBUG) {
       Timber.plant(new DebugTree());
     }
+    appComponent.inject(this);
+    // There is no job scheduler, so interrupted downloads continue whenever the process starts
+    downloadManager.resume();
   }
 
   private AppComponent createComponent() {
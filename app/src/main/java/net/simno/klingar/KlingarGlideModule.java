@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.integration.okhttp3.OkHttpUrlLoader;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.module.AppGlideModule;
+import com.bumptech.glide.request.RequestOptions;
+
+import net.simno.klingar.data.model.PlexImage;
+import net.simno.klingar.util.Metrics;
+
+import java.io.InputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Loads images with the shared OkHttp client at {@code IMAGES} priority. Plex images are loaded
+ * with {@link PlexImageLoader}. Memory budgets follow the device memory class and cache hits are
+ * counted in {@link Metrics}.
+ */
+@GlideModule
+public final class KlingarGlideModule extends AppGlideModule {
+
+  private static final String DISK_CACHE_DIR = "artwork";
+  private static final long DISK_CACHE_BYTES = 64 * 1024 * 1024;
+  /** Fractions of the app heap, i.e. 1/8 for decoded images and 1/16 for reusable bitmaps. */
+  private static final int MEMORY_CACHE_DIVISOR = 8;
+  private static final int BITMAP_POOL_DIVISOR = 16;
+
+  @Inject @Named("images") OkHttpClient client;
+  @Inject Metrics metrics;
+
+  @Override public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+    // Called before registerComponents
+    KlingarApp.get(context).component().inject(this);
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+    builder.setMemoryCache(new ImageCaches.MemoryCache(heapBytes / MEMORY_CACHE_DIVISOR, metrics));
+    builder.setBitmapPool(new LruBitmapPool(heapBytes / BITMAP_POOL_DIVISOR));
+    builder.setDiskCache(new ImageCaches.DiskCacheFactory(
+        new InternalCacheDiskCacheFactory(context, DISK_CACHE_DIR, DISK_CACHE_BYTES), metrics));
+    if (activityManager.isLowRamDevice()) {
+      builder.setDefaultRequestOptions(new RequestOptions().format(DecodeFormat.PREFER_RGB_565));
+    }
+  }
+
+  @Override public void registerComponents(@NonNull Context context, @NonNull Glide glide,
+                                           @NonNull Registry registry) {
+    registry.replace(GlideUrl.class, InputStream.class, new OkHttpUrlLoader.Factory(client));
+    registry.prepend(PlexImage.class, InputStream.class, new PlexImageLoader.Factory());
+  }
+
+  @Override public boolean isManifestParsingEnabled() {
+    return false;
+  }
+}
@@ -29,7 +29,6 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v4.media.session.PlaybackStateCompat.State;
-import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -43,6 +42,7 @@ import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.CustomTarget;
 import com.bumptech.glide.request.transition.Transition;
 
+import net.simno.klingar.data.model.PlexImage;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.playback.MusicController;
 import net.simno.klingar.playback.MusicService;
@@ -275,8 +275,9 @@ public class MediaNotificationManager extends BroadcastReceiver {
 
     setNotificationPlaybackState(notificationBuilder);
 
-    if (currentTrack.thumb() != null) {
-      loadImage(currentTrack.thumb(), notificationBuilder);
+    PlexImage image = PlexImage.of(currentTrack.uri(), currentTrack.thumb());
+    if (image != null) {
+      loadImage(image, notificationBuilder);
     }
 
     return notificationBuilder.build();
@@ -318,10 +319,10 @@ public class MediaNotificationManager extends BroadcastReceiver {
     builder.setOngoing(playbackState.getState() == PlaybackStateCompat.STATE_PLAYING);
   }
 
-  private void loadImage(final String url, final NotificationCompat.Builder builder) {
+  private void loadImage(final PlexImage image, final NotificationCompat.Builder builder) {
     Glide.with(service)
         .asBitmap()
-        .load(url)
+        .load(image)
         .apply(RequestOptions.overrideOf(iconWidth, iconHeight))
         .into(new CustomTarget<Bitmap>() {
           @Override
@@ -329,7 +330,7 @@ public class MediaNotificationManager extends BroadcastReceiver {
               @NonNull Bitmap resource,
               Transition<? super Bitmap> transition
           ) {
-            if (TextUtils.equals(currentTrack.thumb(), url)) {
+            if (image.equals(PlexImage.of(currentTrack.uri(), currentTrack.thumb()))) {
               builder.setLargeIcon(resource);
               notificationManager.notify(NOTIFICATION_ID, builder.build());
             }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelCache;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.BaseGlideUrlLoader;
+
+import net.simno.klingar.data.model.PlexImage;
+
+import java.io.InputStream;
+
+/** Loads {@link PlexImage}s through the Plex photo transcoder at bucketed sizes. */
+final class PlexImageLoader extends BaseGlideUrlLoader<PlexImage> {
+
+  private PlexImageLoader(ModelLoader<GlideUrl, InputStream> concreteLoader,
+                          ModelCache<PlexImage, GlideUrl> modelCache) {
+    super(concreteLoader, modelCache);
+  }
+
+  @Override protected String getUrl(PlexImage image, int width, int height, Options options) {
+    return image.url(width, height).toString();
+  }
+
+  @Override public boolean handles(@NonNull PlexImage image) {
+    return true;
+  }
+
+  static final class Factory implements ModelLoaderFactory<PlexImage, InputStream> {
+
+    private final ModelCache<PlexImage, GlideUrl> modelCache = new ModelCache<>(100);
+
+    @NonNull @Override
+    public ModelLoader<PlexImage, InputStream> build(@NonNull MultiModelLoaderFactory factory) {
+      return new PlexImageLoader(factory.build(GlideUrl.class, InputStream.class), modelCache);
+    }
+
+    @Override public void teardown() {
+      modelCache.clear();
+    }
+  }
+}
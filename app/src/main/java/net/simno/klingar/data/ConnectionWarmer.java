@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data;
+
+import androidx.annotation.NonNull;
+
+import net.simno.klingar.AndroidClock;
+import net.simno.klingar.util.Metrics;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import timber.log.Timber;
+
+/**
+ * Opens a connection to a server before it is needed so that the first request after an idle
+ * period does not pay for TCP and TLS setup. All clients share the connection pool so the
+ * connection can be used by any of them.
+ */
+@Singleton
+public class ConnectionWarmer {
+
+  /** Servers warmed more recently than this are skipped. */
+  static final long WARM_INTERVAL_MS = 30000;
+
+  private final Map<String, Long> warmedAt = new HashMap<>();
+  private final OkHttpClient client;
+  private final Metrics metrics;
+  private final AndroidClock androidClock;
+  private HttpUrl lastServer;
+
+  @Inject public ConnectionWarmer(@Named("default") OkHttpClient client, Metrics metrics) {
+    this(client, metrics, AndroidClock.DEFAULT);
+  }
+
+  ConnectionWarmer(OkHttpClient client, Metrics metrics, AndroidClock androidClock) {
+    this.client = client;
+    this.metrics = metrics;
+    this.androidClock = androidClock;
+  }
+
+  /** Warms the server of the url and remembers it for {@link #rewarm()}. */
+  public void warm(HttpUrl url) {
+    HttpUrl server = url.newBuilder()
+        .encodedPath("/identity")
+        .query(null)
+        .build();
+    synchronized (this) {
+      lastServer = server;
+      long now = androidClock.elapsedRealTime();
+      Long last = warmedAt.get(server.toString());
+      if (last != null && now - last < WARM_INTERVAL_MS) {
+        return;
+      }
+      warmedAt.put(server.toString(), now);
+    }
+    metrics.increment("warm.requests");
+    Request request = new Request.Builder()
+        .url(server)
+        .head()
+        .build();
+    client.newCall(request).enqueue(new Callback() {
+      @Override public void onFailure(@NonNull Call call, @NonNull IOException e) {
+        Timber.d("Warming %s failed %s", server.host(), e.getMessage());
+        metrics.increment("warm.failed");
+      }
+
+      @Override public void onResponse(@NonNull Call call, @NonNull Response response) {
+        response.close();
+      }
+    });
+  }
+
+  /** Warms the last server again, e.g. when the app returns to the foreground. */
+  public void rewarm() {
+    HttpUrl server;
+    synchronized (this) {
+      server = lastServer;
+    }
+    if (server != null) {
+      warm(server);
+    }
+  }
+}
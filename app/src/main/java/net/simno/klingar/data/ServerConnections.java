@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Every known connection uri of each server, so that a request that fails on one connection can be
+ * retried on another, e.g. the local address after a handoff to Wi-Fi.
+ */
+@Singleton
+public class ServerConnections {
+
+  /** Latency of a connection that did not respond, sorted after all others. */
+  public static final long UNAVAILABLE = Long.MAX_VALUE;
+  private static final long UNKNOWN = Long.MAX_VALUE - 1;
+
+  private final Map<HttpUrl, List<HttpUrl>> connections = new ConcurrentHashMap<>();
+  private final Map<HttpUrl, Long> latencies = new ConcurrentHashMap<>();
+
+  @Inject public ServerConnections() {
+  }
+
+  /** @return the url with the scheme, host and port of the base url */
+  public static HttpUrl rebase(HttpUrl url, HttpUrl base) {
+    return url.newBuilder()
+        .scheme(base.scheme())
+        .host(base.host())
+        .port(base.port())
+        .build();
+  }
+
+  /** @return the scheme, host and port of the url, which identify a connection */
+  public static HttpUrl origin(HttpUrl url) {
+    return new HttpUrl.Builder()
+        .scheme(url.scheme())
+        .host(url.host())
+        .port(url.port())
+        .build();
+  }
+
+  /** @param uris all connections of a server, preferred first */
+  public void put(List<HttpUrl> uris) {
+    List<HttpUrl> server = Collections.unmodifiableList(new ArrayList<>(uris));
+    for (HttpUrl uri : server) {
+      connections.put(origin(uri), server);
+    }
+  }
+
+  /** @return every known connection */
+  public List<HttpUrl> all() {
+    Set<HttpUrl> all = new LinkedHashSet<>();
+    for (List<HttpUrl> server : connections.values()) {
+      all.addAll(server);
+    }
+    return new ArrayList<>(all);
+  }
+
+  /** @param latencyMs the measured latency of the connection or {@link #UNAVAILABLE} */
+  public void setLatency(HttpUrl url, long latencyMs) {
+    latencies.put(origin(url), latencyMs);
+  }
+
+  private long latency(HttpUrl url) {
+    Long latency = latencies.get(origin(url));
+    return latency != null ? latency : UNKNOWN;
+  }
+
+  /**
+   * @return the url moved to the fastest measured connection of its server, or the url itself if
+   * no other connection is known to be faster
+   */
+  public HttpUrl fastest(HttpUrl url) {
+    List<HttpUrl> alternates = alternates(url);
+    if (!alternates.isEmpty() && latency(alternates.get(0)) < latency(url)) {
+      return alternates.get(0);
+    }
+    return url;
+  }
+
+  /**
+   * @return the url moved to each of the other connections of its server, fastest first and
+   * connections that did not respond last
+   */
+  public List<HttpUrl> alternates(HttpUrl url) {
+    List<HttpUrl> server = connections.get(origin(url));
+    if (server == null) {
+      return Collections.emptyList();
+    }
+    List<HttpUrl> alternates = new ArrayList<>();
+    for (HttpUrl uri : server) {
+      if (!origin(uri).equals(origin(url))) {
+        alternates.add(rebase(url, uri));
+      }
+    }
+    Collections.sort(alternates, (a, b) -> Long.compare(latency(a), latency(b)));
+    return alternates;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data;
+
+import androidx.annotation.NonNull;
+
+import com.jakewharton.rxrelay2.BehaviorRelay;
+
+import net.simno.klingar.AndroidClock;
+import net.simno.klingar.util.Metrics;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * A circuit breaker per server. After a few connection failures in a row requests to the server
+ * fail immediately with {@link ServerUnavailableException} instead of waiting for timeouts. When
+ * the open period is over one request is let through as a probe, if it succeeds the server is
+ * available again, otherwise the open period is doubled.
+ */
+@Singleton
+public class ServerHealth {
+
+  static final int FAILURE_THRESHOLD = 3;
+  static final long MIN_OPEN_MS = 15000;
+  static final long MAX_OPEN_MS = 300000;
+
+  private final BehaviorRelay<Set<String>> unavailableRelay =
+      BehaviorRelay.createDefault(Collections.emptySet());
+  private final Map<String, Host> hosts = new HashMap<>();
+  private final Metrics metrics;
+  private final AndroidClock androidClock;
+
+  @Inject public ServerHealth(Metrics metrics) {
+    this(metrics, AndroidClock.DEFAULT);
+  }
+
+  ServerHealth(Metrics metrics, AndroidClock androidClock) {
+    this.metrics = metrics;
+    this.androidClock = androidClock;
+  }
+
+  /** @return the hosts that requests are currently short-circuited for */
+  public Flowable<Set<String>> unavailableHosts() {
+    return unavailableRelay.toFlowable(BackpressureStrategy.LATEST);
+  }
+
+  public Interceptor interceptor() {
+    return chain -> {
+      String host = chain.request().url().host();
+      if (!allowRequest(host)) {
+        metrics.increment("health.short_circuited");
+        throw new ServerUnavailableException(host);
+      }
+      Response response;
+      try {
+        response = chain.proceed(chain.request());
+      } catch (IOException e) {
+        if (chain.call().isCanceled()) {
+          onCanceled(host);
+        } else {
+          onFailure(host);
+        }
+        throw e;
+      }
+      // Any response means that the server is reachable
+      onSuccess(host);
+      return response;
+    };
+  }
+
+  synchronized boolean allowRequest(String host) {
+    Host h = hosts.get(host);
+    if (h == null || h.failures < FAILURE_THRESHOLD) {
+      return true;
+    }
+    if (h.probing || androidClock.elapsedRealTime() < h.openUntil) {
+      return false;
+    }
+    h.probing = true; // Half open, let one request through
+    return true;
+  }
+
+  synchronized void onSuccess(String host) {
+    Host h = hosts.remove(host);
+    if (h != null && h.failures >= FAILURE_THRESHOLD) {
+      publish();
+    }
+  }
+
+  synchronized void onFailure(String host) {
+    Host h = host(host);
+    if (h.openMs > 0 && !h.probing) {
+      return; // A request that was sent before the server became unavailable
+    }
+    h.failures++;
+    if (h.failures < FAILURE_THRESHOLD) {
+      return;
+    }
+    boolean wasOpen = h.openMs > 0; // and the probe failed
+    h.openMs = wasOpen ? Math.min(h.openMs * 2, MAX_OPEN_MS) : MIN_OPEN_MS;
+    h.openUntil = androidClock.elapsedRealTime() + h.openMs;
+    h.probing = false;
+    if (!wasOpen) {
+      metrics.increment("health.opened");
+      publish();
+    }
+  }
+
+  private synchronized void onCanceled(String host) {
+    Host h = hosts.get(host);
+    if (h != null) {
+      h.probing = false; // The next request becomes the probe
+    }
+  }
+
+  @NonNull private Host host(String host) {
+    Host h = hosts.get(host);
+    if (h == null) {
+      h = new Host();
+      hosts.put(host, h);
+    }
+    return h;
+  }
+
+  private void publish() {
+    Set<String> unavailable = new HashSet<>();
+    for (Map.Entry<String, Host> entry : hosts.entrySet()) {
+      if (entry.getValue().failures >= FAILURE_THRESHOLD) {
+        unavailable.add(entry.getKey());
+      }
+    }
+    unavailableRelay.accept(Collections.unmodifiableSet(unavailable));
+  }
+
+  private static class Host {
+    private int failures;
+    private long openMs;
+    private long openUntil;
+    private boolean probing;
+  }
+}
@@ -26,6 +26,7 @@ import net.simno.klingar.data.model.Library;
 import net.simno.klingar.data.model.Server;
 import net.simno.klingar.util.Rx;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -44,12 +45,15 @@ public class ServerManager {
   private final BehaviorRelay<List<Library>> libsRelay = BehaviorRelay.create();
   private final PlexService plex;
   private final MediaService media;
+  private final ServerConnections serverConnections;
   private final Rx rx;
   private Disposable disposable;
 
-  @Inject ServerManager(PlexService plex, MediaService media, Rx rx) {
+  @Inject ServerManager(PlexService plex, MediaService media, ServerConnections serverConnections,
+                        Rx rx) {
     this.plex = plex;
     this.media = media;
+    this.serverConnections = serverConnections;
     this.rx = rx;
   }
 
@@ -70,20 +74,24 @@ public class ServerManager {
   }
 
   private Server createServer(Device device) {
-    Server.Builder builder = Server.builder();
-
-    for (Device.Connection connection : device.connections) {
-      if (connection.local == 0) {
+    // Remote connections first, the first one is used and the rest are kept for failover
+    List<HttpUrl> uris = new ArrayList<>();
+    for (int local = 0; local <= 1; ++local) {
+      for (Device.Connection connection : device.connections) {
         HttpUrl parsedUrl = HttpUrl.parse(connection.uri);
-        if (parsedUrl != null) {
-          builder.uri(parsedUrl.newBuilder()
+        if (connection.local == local && parsedUrl != null) {
+          uris.add(parsedUrl.newBuilder()
               .addQueryParameter("X-Plex-Token", device.accessToken)
               .build());
-          break;
         }
       }
     }
 
+    Server.Builder builder = Server.builder();
+    if (!uris.isEmpty()) {
+      builder.uri(uris.get(0));
+      serverConnections.put(uris);
+    }
     return builder.build();
   }
 
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data;
+
+import androidx.annotation.NonNull;
+
+import com.jakewharton.rxrelay2.BehaviorRelay;
+
+import net.simno.klingar.data.api.Endpoint;
+import net.simno.klingar.data.model.ConnectionStatus;
+import net.simno.klingar.util.Metrics;
+import net.simno.klingar.util.Rx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Probes every known server connection with an identity request and keeps latency and
+ * availability statistics. Probes run often while the app is in the foreground, seldom while it
+ * is playing in the background and not at all when it is idle.
+ */
+@Singleton
+public class ServerMonitor {
+
+  static final long FOREGROUND_INTERVAL_MS = 30000;
+  static final long BACKGROUND_INTERVAL_MS = 300000;
+  static final long IDLE = 0;
+  /** Weight of the newest probe in the smoothed latency. */
+  private static final double ALPHA = 0.3;
+
+  private final BehaviorRelay<Long> intervalRelay = BehaviorRelay.createDefault(IDLE);
+  private final BehaviorRelay<List<ConnectionStatus>> statusRelay =
+      BehaviorRelay.createDefault(Collections.emptyList());
+  private final Map<HttpUrl, ConnectionStatus> statuses = new LinkedHashMap<>();
+  private final OkHttpClient client;
+  private final ServerConnections serverConnections;
+  private final Metrics metrics;
+  private final Scheduler scheduler;
+  private Disposable disposable;
+  private boolean foreground;
+  private boolean playing;
+
+  @Inject public ServerMonitor(@Named("prefetch") OkHttpClient client,
+                               ServerConnections serverConnections, Metrics metrics, Rx rx) {
+    this(client, serverConnections, metrics, rx.background());
+  }
+
+  ServerMonitor(OkHttpClient client, ServerConnections serverConnections, Metrics metrics,
+                Scheduler scheduler) {
+    this.client = client;
+    this.serverConnections = serverConnections;
+    this.metrics = metrics;
+    this.scheduler = scheduler;
+  }
+
+  /** @return the status of every probed connection, updated after each probe */
+  public Flowable<List<ConnectionStatus>> statuses() {
+    return statusRelay.toFlowable(BackpressureStrategy.LATEST);
+  }
+
+  public synchronized void setForeground(boolean foreground) {
+    this.foreground = foreground;
+    updateInterval();
+  }
+
+  public synchronized void setPlaying(boolean playing) {
+    this.playing = playing;
+    updateInterval();
+  }
+
+  private void updateInterval() {
+    if (disposable == null) {
+      disposable = intervalRelay
+          .distinctUntilChanged()
+          .toFlowable(BackpressureStrategy.LATEST)
+          .switchMap(interval -> interval == IDLE ? Flowable.<Long>empty()
+              : Flowable.interval(0, interval, TimeUnit.MILLISECONDS, scheduler))
+          .onBackpressureDrop()
+          .flatMap(tick -> Flowable.fromIterable(serverConnections.all()), false, 1)
+          .flatMapSingle(this::probe)
+          .subscribe(this::update, Rx::onError);
+    }
+    intervalRelay.accept(foreground ? FOREGROUND_INTERVAL_MS
+        : playing ? BACKGROUND_INTERVAL_MS : IDLE);
+  }
+
+  private Single<ConnectionStatus> probe(HttpUrl connection) {
+    HttpUrl origin = ServerConnections.origin(connection);
+    return Single.create(emitter -> {
+      Call call = client.newCall(new Request.Builder()
+          .url(origin.newBuilder().addPathSegment("identity").build())
+          .head()
+          .tag(Endpoint.class, Endpoint.IDENTITY)
+          .build());
+      emitter.setCancellable(call::cancel);
+      call.enqueue(new Callback() {
+        @Override public void onFailure(@NonNull Call call, @NonNull IOException e) {
+          emitter.onSuccess(status(origin, -1));
+        }
+
+        @Override public void onResponse(@NonNull Call call, @NonNull Response response) {
+          response.close();
+          // Only the round trip, not the time spent waiting for a thread, connection or HostGate
+          long latency = response.receivedResponseAtMillis() - response.sentRequestAtMillis();
+          emitter.onSuccess(status(origin, response.isSuccessful() ? latency : -1));
+        }
+      });
+    });
+  }
+
+  /** @param latencyMs the latency of the probe or -1 if it failed */
+  private synchronized ConnectionStatus status(HttpUrl origin, long latencyMs) {
+    ConnectionStatus previous = statuses.get(origin);
+    if (latencyMs < 0) {
+      return ConnectionStatus.builder()
+          .uri(origin)
+          .available(false)
+          .latencyMs(previous != null ? previous.latencyMs() : -1)
+          .failures(previous != null ? previous.failures() + 1 : 1)
+          .build();
+    }
+    long smoothed = previous == null || previous.latencyMs() < 0 ? latencyMs
+        : Math.round(ALPHA * latencyMs + (1 - ALPHA) * previous.latencyMs());
+    return ConnectionStatus.builder()
+        .uri(origin)
+        .available(true)
+        .latencyMs(smoothed)
+        .failures(0)
+        .build();
+  }
+
+  private synchronized void update(ConnectionStatus status) {
+    if (status.available()) {
+      metrics.record("monitor.latency_ms", status.latencyMs());
+      serverConnections.setLatency(status.uri(), status.latencyMs());
+    } else {
+      metrics.increment("monitor.failed");
+      serverConnections.setLatency(status.uri(), ServerConnections.UNAVAILABLE);
+    }
+    statuses.put(status.uri(), status);
+    statusRelay.accept(Collections.unmodifiableList(new ArrayList<>(statuses.values())));
+  }
+}
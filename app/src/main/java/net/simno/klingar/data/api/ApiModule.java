@@ -17,7 +17,11 @@ package net.simno.klingar.data.api;
 
 import android.content.res.Resources;
 
+import net.simno.klingar.AndroidClock;
 import net.simno.klingar.R;
+import net.simno.klingar.data.ServerConnections;
+import net.simno.klingar.data.ServerHealth;
+import net.simno.klingar.util.Metrics;
 
 import org.simpleframework.xml.core.Persister;
 import org.simpleframework.xml.stream.Format;
@@ -28,6 +32,10 @@ import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
@@ -42,6 +50,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 public class ApiModule {
 
   private static final String PLEX_URL = "https://plex.tv";
+  private static final int MAX_REQUESTS_PER_HOST = 6;
 
   @Provides @Singleton AuthInterceptor provideAuthInterceptor() {
     return new AuthInterceptor();
@@ -67,22 +76,101 @@ public class ApiModule {
     return logging;
   }
 
-  @Provides @Singleton @Named("default")
-  OkHttpClient provideOkHttpClient(HttpLoggingInterceptor logging, PlexHeaders plexHeaders) {
+  @Provides @Singleton NetworkMetrics provideNetworkMetrics(Metrics metrics) {
+    return new NetworkMetrics(metrics, Endpoint.OTHER);
+  }
+
+  @Provides @Singleton ConnectionPool provideConnectionPool() {
+    return new ConnectionPool();
+  }
+
+  @Provides @Singleton Dispatcher provideDispatcher() {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+    return dispatcher;
+  }
+
+  @Provides @Singleton HostGate provideHostGate() {
+    return new HostGate(MAX_REQUESTS_PER_HOST);
+  }
+
+  /**
+   * Calls wait for HostGate on dispatcher threads, so every priority gets its own per host limit
+   * to keep queued thumbnails from taking the slots of playback and UI. Threads are shared.
+   */
+  private static Dispatcher dispatcher(OkHttpClient client) {
+    Dispatcher dispatcher = new Dispatcher(client.dispatcher().executorService());
+    dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+    return dispatcher;
+  }
+
+  @Provides @Singleton Dns provideDns() {
+    return new PlexDns(Dns.SYSTEM, AndroidClock.DEFAULT);
+  }
+
+  /** All clients are built from this one so that they share connections and threads. */
+  @Provides @Singleton @Named("base")
+  OkHttpClient provideBaseClient(ConnectionPool connectionPool, Dispatcher dispatcher, Dns dns,
+                                 ServerHealth serverHealth, HttpLoggingInterceptor logging,
+                                 PlexHeaders plexHeaders, NetworkMetrics networkMetrics) {
     return new OkHttpClient().newBuilder()
+        .connectionPool(connectionPool)
+        .dispatcher(dispatcher)
+        .dns(dns)
         .connectTimeout(15, SECONDS)
         .readTimeout(15, SECONDS)
         .writeTimeout(15, SECONDS)
+        .addInterceptor(serverHealth.interceptor())
         .addInterceptor(logging)
         .addInterceptor(plexHeaders)
+        .eventListenerFactory(networkMetrics)
+        .build();
+  }
+
+  @Provides @Singleton @Named("default")
+  OkHttpClient provideOkHttpClient(@Named("base") OkHttpClient client, HostGate hostGate) {
+    return client.newBuilder()
+        .dispatcher(dispatcher(client))
+        .addInterceptor(hostGate.interceptor(RequestPriority.UI))
+        .build();
+  }
+
+  @Provides @Singleton @Named("playback")
+  OkHttpClient providePlaybackClient(@Named("base") OkHttpClient client, HostGate hostGate,
+                                     Metrics metrics) {
+    return client.newBuilder()
+        .dispatcher(dispatcher(client))
+        .addInterceptor(hostGate.interceptor(RequestPriority.PLAYBACK))
+        .eventListenerFactory(new NetworkMetrics(metrics, Endpoint.STREAM))
+        .build();
+  }
+
+  @Provides @Singleton @Named("images")
+  OkHttpClient provideImagesClient(@Named("base") OkHttpClient client, HostGate hostGate,
+                                   Metrics metrics) {
+    return client.newBuilder()
+        .dispatcher(dispatcher(client))
+        .addInterceptor(hostGate.interceptor(RequestPriority.IMAGES))
+        .eventListenerFactory(new NetworkMetrics(metrics, Endpoint.IMAGES))
+        .build();
+  }
+
+  @Provides @Singleton @Named("prefetch")
+  OkHttpClient providePrefetchClient(@Named("base") OkHttpClient client, HostGate hostGate,
+                                     Metrics metrics) {
+    return client.newBuilder()
+        .dispatcher(dispatcher(client))
+        .addInterceptor(hostGate.interceptor(RequestPriority.PREFETCH))
+        .eventListenerFactory(new NetworkMetrics(metrics, Endpoint.PREFETCH))
         .build();
   }
 
   @Provides @Singleton @Named("plex")
   OkHttpClient providePlexClient(@Named("default") OkHttpClient client,
-                                 AuthInterceptor authInterceptor) {
+                                 AuthInterceptor authInterceptor, Metrics metrics) {
     return client.newBuilder()
         .addInterceptor(authInterceptor)
+        .eventListenerFactory(new NetworkMetrics(metrics, Endpoint.PLEX))
         .build();
   }
 
@@ -114,7 +202,12 @@ public class ApiModule {
         .build();
   }
 
-  @Provides @Singleton MediaService provideMediaService(@Named("media") Retrofit retrofit) {
-    return new MediaService(retrofit.create(MediaService.Api.class));
+  @Provides @Singleton Hedger provideHedger(ServerConnections serverConnections, Metrics metrics) {
+    return new Hedger(serverConnections, metrics, Schedulers.computation(), Schedulers.io());
+  }
+
+  @Provides @Singleton MediaService provideMediaService(@Named("media") Retrofit retrofit,
+                                                        Hedger hedger) {
+    return new MediaService(retrofit.create(MediaService.Api.class), hedger);
   }
 }
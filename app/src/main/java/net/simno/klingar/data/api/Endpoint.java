@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+/**
+ * The logical Plex endpoint of a request, used to group the {@code net.*} and {@code api.*}
+ * metrics. Set with {@code Request.Builder.tag(Endpoint.class, endpoint)}, requests without a tag
+ * are grouped by the client that sent them.
+ */
+public enum Endpoint {
+  SECTIONS("sections"),
+  ALBUMS("albums"),
+  TRACKS("tracks"),
+  POPULAR_TRACKS("popular_tracks"),
+  BROWSE("browse"),
+  RECENT_ARTISTS("recent_artists"),
+  FIRST_CHARACTER("first_character"),
+  TIMELINE("timeline"),
+  PLAY_QUEUES("play_queues"),
+  IDENTITY("identity"),
+  /** Requests to plex.tv. */
+  PLEX("plex"),
+  /** Audio streams, direct and transcoded. */
+  STREAM("stream"),
+  IMAGES("images"),
+  /** Precaching and downloads. */
+  PREFETCH("prefetch"),
+  OTHER("other");
+
+  final String key;
+
+  Endpoint(String key) {
+    this.key = key;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+import net.simno.klingar.data.ServerConnections;
+import net.simno.klingar.util.Metrics;
+
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import okhttp3.HttpUrl;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Sends a second copy of a slow request once it has taken longer than the p90 latency of its
+ * endpoint and uses whichever response arrives first. The copy goes to another connection of the
+ * same server when there is one. Only use this for idempotent requests.
+ */
+class Hedger {
+
+  /** Hedge delay until an endpoint has enough samples for a p90. */
+  static final long DEFAULT_DELAY_MS = 2000;
+  static final long MIN_DELAY_MS = 50;
+  static final int MIN_SAMPLES = 20;
+
+  private final ServerConnections serverConnections;
+  private final Metrics metrics;
+  private final Scheduler scheduler;
+  private final Scheduler requestScheduler;
+
+  /**
+   * @param scheduler runs the hedge timer and measures latency
+   * @param requestScheduler subscribes the blocking Retrofit calls so that neither the primary
+   *                         nor the hedge can block the timer or each other
+   */
+  Hedger(ServerConnections serverConnections, Metrics metrics, Scheduler scheduler,
+         Scheduler requestScheduler) {
+    this.serverConnections = serverConnections;
+    this.metrics = metrics;
+    this.scheduler = scheduler;
+    this.requestScheduler = requestScheduler;
+  }
+
+  static String latency(Endpoint endpoint) {
+    return "api." + endpoint.key + "_ms";
+  }
+
+  <T> Observable<T> hedge(Endpoint endpoint, HttpUrl url, Request<T> request) {
+    Observable<T> primary = request.get(url, endpoint).subscribeOn(requestScheduler);
+    return Observable.defer(() -> {
+      long start = scheduler.now(MILLISECONDS);
+      Observable<T> hedge = Observable.timer(delay(endpoint), MILLISECONDS, scheduler)
+          .flatMap(tick -> {
+            metrics.increment("hedge." + endpoint.key + ".sent");
+            return request.get(hedgeUrl(url), endpoint).subscribeOn(requestScheduler);
+          })
+          .doOnNext(response -> metrics.increment("hedge." + endpoint.key + ".won"))
+          // A failed hedge should not fail the primary request
+          .onErrorResumeNext(Observable.never());
+      // One sample per request, measured from when the primary was sent. When the hedge wins this
+      // is a censored sample of the slow primary, so hedging does not drag the p90 down.
+      return Observable.ambArray(primary, hedge)
+          .doOnNext(response ->
+              metrics.record(latency(endpoint), scheduler.now(MILLISECONDS) - start));
+    });
+  }
+
+  long delay(Endpoint endpoint) {
+    Metrics.Histogram histogram = metrics.histogram(latency(endpoint));
+    if (histogram.count() < MIN_SAMPLES) {
+      return DEFAULT_DELAY_MS;
+    }
+    return Math.max(MIN_DELAY_MS, histogram.percentile(90));
+  }
+
+  private HttpUrl hedgeUrl(HttpUrl url) {
+    List<HttpUrl> alternates = serverConnections.alternates(url);
+    return alternates.isEmpty() ? url : alternates.get(0);
+  }
+
+  interface Request<T> {
+    Observable<T> get(HttpUrl url, Endpoint endpoint);
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Limits concurrent requests per host by {@link RequestPriority}. Lower priorities get fewer
+ * connections and wait while a higher priority is waiting, so a burst of thumbnails can not
+ * starve an audio stream on the same server. A request holds its slot until the response body is
+ * closed. Waiting happens on a dispatcher thread, so each priority should use its own
+ * {@link okhttp3.Dispatcher} to keep waiting calls from using up the dispatcher limits of
+ * higher priorities.
+ */
+class HostGate {
+
+  static final long CANCEL_CHECK_MS = 100;
+
+  private final Map<String, Host> hosts = new HashMap<>();
+  private final int maxPerHost;
+
+  HostGate(int maxPerHost) {
+    this.maxPerHost = maxPerHost;
+  }
+
+  /** @param priority used for requests without a {@link RequestPriority} tag */
+  Interceptor interceptor(RequestPriority priority) {
+    return new GateInterceptor(priority);
+  }
+
+  synchronized boolean tryAcquire(String host, RequestPriority priority) {
+    Host h = host(host);
+    if (!h.canStart(priority)) {
+      return false;
+    }
+    h.inFlight++;
+    return true;
+  }
+
+  /** Waits for a free connection, giving up when {@code call} is canceled. */
+  synchronized void acquire(String host, RequestPriority priority, Call call) throws IOException {
+    Host h = host(host);
+    h.waiting[priority.ordinal()]++;
+    try {
+      while (!h.canStart(priority)) {
+        if (call.isCanceled()) {
+          throw new IOException("Canceled waiting for " + host);
+        }
+        // Cancel does not notify, so wake up now and then to check it
+        wait(CANCEL_CHECK_MS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for " + host);
+    } finally {
+      h.waiting[priority.ordinal()]--;
+    }
+    h.inFlight++;
+  }
+
+  synchronized void release(String host) {
+    host(host).inFlight--;
+    notifyAll();
+  }
+
+  synchronized int inFlight(String host) {
+    return host(host).inFlight;
+  }
+
+  private Host host(String host) {
+    Host h = hosts.get(host);
+    if (h == null) {
+      h = new Host();
+      hosts.put(host, h);
+    }
+    return h;
+  }
+
+  private class Host {
+    private final int[] waiting = new int[RequestPriority.values().length];
+    private int inFlight;
+
+    private boolean canStart(RequestPriority priority) {
+      if (priority == RequestPriority.PLAYBACK) {
+        return true;
+      }
+      for (int i = 0; i < priority.ordinal(); ++i) {
+        if (waiting[i] > 0) {
+          return false;
+        }
+      }
+      return inFlight < maxPerHost - priority.reserved;
+    }
+  }
+
+  private class GateInterceptor implements Interceptor {
+
+    private final RequestPriority defaultPriority;
+
+    GateInterceptor(RequestPriority defaultPriority) {
+      this.defaultPriority = defaultPriority;
+    }
+
+    @NonNull @Override public Response intercept(@NonNull Chain chain) throws IOException {
+      Request request = chain.request();
+      RequestPriority priority = request.tag(RequestPriority.class);
+      if (priority == null) {
+        priority = defaultPriority;
+      }
+      String host = request.url().host();
+      AtomicBoolean released = new AtomicBoolean();
+      Runnable release = () -> {
+        if (released.compareAndSet(false, true)) {
+          release(host);
+        }
+      };
+
+      acquire(host, priority, chain.call());
+      Response response;
+      try {
+        response = chain.proceed(request);
+      } catch (IOException | RuntimeException e) {
+        release.run();
+        throw e;
+      }
+
+      ResponseBody body = response.body();
+      if (body == null) {
+        release.run();
+        return response;
+      }
+      ForwardingSource source = new ForwardingSource(body.source()) {
+        @Override public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            release.run();
+          }
+        }
+      };
+      return response.newBuilder()
+          .body(ResponseBody.create(Okio.buffer(source), body.contentType(), body.contentLength()))
+          .build();
+    }
+  }
+}
@@ -23,6 +23,7 @@ import io.reactivex.Single;
 import okhttp3.HttpUrl;
 import retrofit2.http.GET;
 import retrofit2.http.POST;
+import retrofit2.http.Tag;
 import retrofit2.http.Url;
 
 public class MediaService {
@@ -30,47 +31,49 @@ public class MediaService {
   private static final String TOKEN = "X-Plex-Token";
 
   private final Api api;
+  private final Hedger hedger;
 
-  MediaService(Api api) {
+  MediaService(Api api, Hedger hedger) {
     this.api = api;
+    this.hedger = hedger;
   }
 
   public Observable<MediaContainer> sections(HttpUrl url) {
-    return api.get(url.newBuilder()
+    return hedger.hedge(Endpoint.SECTIONS, url.newBuilder()
         .addPathSegments("library/sections")
-        .build());
+        .build(), api::get);
   }
 
   public Observable<MediaContainer> albums(HttpUrl url, String artistKey) {
-    return api.get(url.newBuilder()
+    return hedger.hedge(Endpoint.ALBUMS, url.newBuilder()
         .addPathSegments("library/metadata")
         .addPathSegment(artistKey)
         .addPathSegment("children")
-        .build());
+        .build(), api::get);
   }
 
   public Observable<MediaContainer> tracks(HttpUrl url, String albumKey) {
-    return api.get(url.newBuilder()
+    return hedger.hedge(Endpoint.TRACKS, url.newBuilder()
         .addPathSegments("library/metadata")
         .addPathSegment(albumKey)
         .addPathSegment("children")
-        .build());
+        .build(), api::get);
   }
 
   public Observable<MediaContainer> popularTracks(HttpUrl url, String libKey, String artistKey) {
-    return api.get(url.newBuilder()
+    return hedger.hedge(Endpoint.POPULAR_TRACKS, url.newBuilder()
         .addPathSegments("library/sections")
         .addPathSegment(libKey)
         .addPathSegment("all")
         .query("group=title&limit=5&ratingCount>=1&sort=ratingCount:desc&type=10")
         .addQueryParameter("artist.id", artistKey)
         .addQueryParameter(TOKEN, url.queryParameter(TOKEN))
-        .build());
+        .build(), api::get);
   }
 
   public Observable<MediaContainer> browse(HttpUrl url, String libKey, String mediaKey,
                                            int offset) {
-    return api.get(url.newBuilder()
+    return hedger.hedge(Endpoint.BROWSE, url.newBuilder()
         .addPathSegments("library/sections")
         .addPathSegment(libKey)
         .addPathSegment("all")
@@ -78,26 +81,26 @@ public class MediaService {
         .addQueryParameter("type", mediaKey)
         .addQueryParameter("X-Plex-Container-Start", String.valueOf(offset))
         .addQueryParameter(TOKEN, url.queryParameter(TOKEN))
-        .build());
+        .build(), api::get);
   }
 
   public Observable<MediaContainer> recentArtists(HttpUrl url, String libKey) {
-    return api.get(url.newBuilder()
+    return hedger.hedge(Endpoint.RECENT_ARTISTS, url.newBuilder()
         .addPathSegments("library/sections")
         .addPathSegment(libKey)
         .addPathSegment("all")
         .query("viewCount>=1&type=8&sort=lastViewedAt:desc")
         .addQueryParameter(TOKEN, url.queryParameter(TOKEN))
-        .build());
+        .build(), api::get);
   }
 
   public Observable<MediaContainer> firstCharacter(HttpUrl url, String libKey, String mediaKey) {
-    return api.get(url.newBuilder()
+    return hedger.hedge(Endpoint.FIRST_CHARACTER, url.newBuilder()
         .addPathSegments("library/sections")
         .addPathSegment(libKey)
         .addPathSegment("firstCharacter")
         .addQueryParameter("type", mediaKey)
-        .build());
+        .build(), api::get);
   }
 
   public Completable timeline(HttpUrl url, long queueItemId, String trackKey, String trackRatingKey,
@@ -110,7 +113,7 @@ public class MediaService {
         .addQueryParameter("state", state)
         .addQueryParameter("duration", String.valueOf(duration))
         .addQueryParameter("time", String.valueOf(time))
-        .build())
+        .build(), Endpoint.TIMELINE)
         .ignoreElements();
   }
 
@@ -122,11 +125,11 @@ public class MediaService {
         .addQueryParameter("key", trackKey)
         .addQueryParameter("uri", "library://" + libraryId + "/item/" + trackParentKey)
         .addQueryParameter(TOKEN, url.queryParameter(TOKEN))
-        .build());
+        .build(), Endpoint.PLAY_QUEUES);
   }
 
   interface Api {
-    @GET Observable<MediaContainer> get(@Url HttpUrl url);
-    @POST Single<MediaContainer> post(@Url HttpUrl url);
+    @GET Observable<MediaContainer> get(@Url HttpUrl url, @Tag Endpoint endpoint);
+    @POST Single<MediaContainer> post(@Url HttpUrl url, @Tag Endpoint endpoint);
   }
 }
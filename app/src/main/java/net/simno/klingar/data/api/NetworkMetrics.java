@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+import androidx.annotation.NonNull;
+
+import net.simno.klingar.util.Metrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Records where the time of each call goes (dns, connect, tls, time to first byte and body read),
+ * the response size and whether the call got a warm connection, grouped by the {@link Endpoint}
+ * that was called.
+ */
+class NetworkMetrics implements EventListener.Factory {
+
+  private final Metrics metrics;
+  private final Endpoint defaultEndpoint;
+
+  /** @param defaultEndpoint used for requests without an {@link Endpoint} tag */
+  NetworkMetrics(Metrics metrics, Endpoint defaultEndpoint) {
+    this.metrics = metrics;
+    this.defaultEndpoint = defaultEndpoint;
+  }
+
+  /** @return the {@link Endpoint} tag of the request, or the default of this client */
+  Endpoint endpoint(Request request) {
+    Endpoint endpoint = request.tag(Endpoint.class);
+    return endpoint != null ? endpoint : defaultEndpoint;
+  }
+
+  @NonNull @Override public EventListener create(@NonNull Call call) {
+    return new CallMetrics(endpoint(call.request()).key);
+  }
+
+  private class CallMetrics extends EventListener {
+
+    private final String prefix;
+    private long callStart;
+    private long dnsStart;
+    private long connectStart;
+    private long secureConnectStart;
+    private long bodyStart;
+    private boolean connected;
+
+    CallMetrics(String endpoint) {
+      this.prefix = "net." + endpoint + ".";
+    }
+
+    private long now() {
+      return System.nanoTime();
+    }
+
+    private void record(String name, long start) {
+      metrics.record(prefix + name, (now() - start) / 1000000);
+    }
+
+    @Override public void callStart(@NonNull Call call) {
+      callStart = now();
+    }
+
+    @Override public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+      dnsStart = now();
+    }
+
+    @Override public void dnsEnd(@NonNull Call call, @NonNull String domainName,
+                                 @NonNull List<InetAddress> inetAddressList) {
+      record("dns_ms", dnsStart);
+    }
+
+    @Override public void connectStart(@NonNull Call call, @NonNull InetSocketAddress address,
+                                       @NonNull Proxy proxy) {
+      connectStart = now();
+      connected = true;
+    }
+
+    @Override public void secureConnectStart(@NonNull Call call) {
+      secureConnectStart = now();
+    }
+
+    @Override public void secureConnectEnd(@NonNull Call call, Handshake handshake) {
+      record("tls_ms", secureConnectStart);
+    }
+
+    @Override public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress address,
+                                     @NonNull Proxy proxy, Protocol protocol) {
+      record("connect_ms", connectStart);
+    }
+
+    @Override public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+      // A call that did not connect got a warm connection from the pool
+      metrics.increment(prefix + (connected ? "cold" : "warm"));
+    }
+
+    @Override public void responseHeadersStart(@NonNull Call call) {
+      record("ttfb_ms", callStart);
+    }
+
+    @Override public void responseBodyStart(@NonNull Call call) {
+      bodyStart = now();
+    }
+
+    @Override public void responseBodyEnd(@NonNull Call call, long byteCount) {
+      record("body_ms", bodyStart);
+      metrics.record(prefix + "bytes", byteCount);
+    }
+
+    @Override public void callEnd(@NonNull Call call) {
+      record("total_ms", callStart);
+    }
+
+    @Override public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+      metrics.increment(prefix + "failed");
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.simno.klingar.AndroidClock;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Dns;
+
+/**
+ * Resolves {@code *.plex.direct} hostnames without a lookup, the address is encoded in the first
+ * label, e.g. {@code 192-168-1-2.<hash>.plex.direct}. Other lookups are cached for a minute and
+ * returned with IPv4 and IPv6 addresses interleaved, so a dead address family costs one connect
+ * attempt instead of all of them.
+ */
+class PlexDns implements Dns {
+
+  static final long TTL_MS = 60000;
+  private static final String PLEX_DIRECT = ".plex.direct";
+
+  private final Map<String, Entry> cache = new HashMap<>();
+  private final Dns delegate;
+  private final AndroidClock androidClock;
+
+  PlexDns(Dns delegate, AndroidClock androidClock) {
+    this.delegate = delegate;
+    this.androidClock = androidClock;
+  }
+
+  /** @return the address encoded in a plex.direct hostname or null if there is none */
+  @Nullable static InetAddress decodePlexDirect(String hostname) {
+    if (!hostname.endsWith(PLEX_DIRECT)) {
+      return null;
+    }
+    String label = hostname.substring(0, hostname.indexOf('.'));
+    try {
+      String[] parts = label.split("-", -1);
+      if (parts.length == 4) {
+        byte[] address = new byte[4];
+        for (int i = 0; i < 4; ++i) {
+          int part = Integer.parseInt(parts[i]);
+          if (part < 0 || part > 255) {
+            return null;
+          }
+          address[i] = (byte) part;
+        }
+        return InetAddress.getByAddress(hostname, address);
+      }
+      String ipv6 = label.replace('-', ':');
+      if (ipv6.indexOf(':') >= 0 && ipv6.matches("[0-9a-fA-F:]+")) {
+        // A literal is parsed without a lookup
+        return InetAddress.getByAddress(hostname, InetAddress.getByName(ipv6).getAddress());
+      }
+    } catch (NumberFormatException | UnknownHostException e) {
+      return null;
+    }
+    return null;
+  }
+
+  static List<InetAddress> interleave(List<InetAddress> addresses) {
+    List<InetAddress> ipv4 = new ArrayList<>();
+    List<InetAddress> ipv6 = new ArrayList<>();
+    for (InetAddress address : addresses) {
+      if (address instanceof Inet4Address) {
+        ipv4.add(address);
+      } else {
+        ipv6.add(address);
+      }
+    }
+    List<InetAddress> interleaved = new ArrayList<>(addresses.size());
+    for (int i = 0; i < Math.max(ipv4.size(), ipv6.size()); ++i) {
+      if (i < ipv4.size()) {
+        interleaved.add(ipv4.get(i));
+      }
+      if (i < ipv6.size()) {
+        interleaved.add(ipv6.get(i));
+      }
+    }
+    return interleaved;
+  }
+
+  @NonNull @Override public List<InetAddress> lookup(@NonNull String hostname)
+      throws UnknownHostException {
+    InetAddress plexDirect = decodePlexDirect(hostname);
+    if (plexDirect != null) {
+      return Collections.singletonList(plexDirect);
+    }
+
+    long now = androidClock.elapsedRealTime();
+    synchronized (cache) {
+      Entry entry = cache.get(hostname);
+      if (entry != null && now < entry.expiresAt) {
+        return entry.addresses;
+      }
+    }
+
+    List<InetAddress> addresses = Collections.unmodifiableList(
+        interleave(delegate.lookup(hostname)));
+    synchronized (cache) {
+      cache.put(hostname, new Entry(addresses, now + TTL_MS));
+    }
+    return addresses;
+  }
+
+  private static class Entry {
+    private final List<InetAddress> addresses;
+    private final long expiresAt;
+
+    Entry(List<InetAddress> addresses, long expiresAt) {
+      this.addresses = addresses;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
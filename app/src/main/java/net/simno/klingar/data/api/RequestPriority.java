@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+/**
+ * Priority classes for requests to a Plex server, highest first. A request can override the
+ * priority of its client with {@code Request.Builder.tag(RequestPriority.class, priority)}.
+ */
+public enum RequestPriority {
+  /** Audio streams, never wait. */
+  PLAYBACK(0),
+  /** Metadata for the screen the user is looking at. */
+  UI(0),
+  IMAGES(2),
+  /** Background work like precaching and downloads. */
+  PREFETCH(4);
+
+  /** Number of connections per host that are kept free for higher priorities. */
+  final int reserved;
+
+  RequestPriority(int reserved) {
+    this.reserved = reserved;
+  }
+}
@@ -35,6 +35,9 @@ public final class Song {
 
   @Root(strict = false)
   public static class Media {
+    @Attribute(required = false) public int bitrate;
+    @Attribute(required = false) public String audioCodec;
+    @Attribute(required = false) public String container;
     @Element public Part part;
   }
 
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.download;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import com.jakewharton.rxrelay2.PublishRelay;
+import com.jakewharton.rxrelay2.Relay;
+
+import net.simno.klingar.AndroidClock;
+import net.simno.klingar.data.ServerConnections;
+import net.simno.klingar.data.model.Album;
+import net.simno.klingar.data.model.Artist;
+import net.simno.klingar.data.model.Download;
+import net.simno.klingar.data.model.PlexItem;
+import net.simno.klingar.data.model.Track;
+import net.simno.klingar.data.repository.MusicRepository;
+import net.simno.klingar.util.Metrics;
+import net.simno.klingar.util.Rx;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import timber.log.Timber;
+
+/**
+ * Downloads tracks to app storage for offline playback. A few tracks are downloaded at a time and
+ * unfinished downloads are picked up again by {@link #resume()} when the app process starts.
+ */
+@Singleton
+public class DownloadManager {
+
+  private static final String DIRECTORY = "downloads";
+  private static final String MANIFEST = "manifest.json";
+  private static final int MAX_CONCURRENT_DOWNLOADS = 2;
+
+  private final Relay<Download> pendingRelay = PublishRelay.<Download>create().toSerialized();
+  private final Set<String> pending = new HashSet<>();
+  private final DownloadManifest manifest;
+  private final Downloader downloader;
+  private final MusicRepository musicRepository;
+  private final ServerConnections serverConnections;
+  private final Metrics metrics;
+  private final Rx rx;
+  private Disposable worker;
+
+  @Inject DownloadManager(Context context, @Named("prefetch") OkHttpClient client,
+                          MusicRepository musicRepository, ServerConnections serverConnections,
+                          Metrics metrics, Rx rx) {
+    File directory = new File(context.getFilesDir(), DIRECTORY);
+    this.manifest = new DownloadManifest(new File(directory, MANIFEST));
+    this.downloader = new Downloader(client, directory);
+    this.musicRepository = musicRepository;
+    this.serverConnections = serverConnections;
+    this.metrics = metrics;
+    this.rx = rx;
+  }
+
+  /** Restarts downloads that did not finish, e.g. because the process was killed. */
+  public void resume() {
+    Completable.fromAction(() -> {
+      startWorker();
+      for (Download download : manifest.all()) {
+        if (!download.completed()) {
+          enqueue(download);
+        }
+      }
+    }).subscribeOn(rx.io()).subscribe(() -> { }, Rx::onError);
+  }
+
+  public void download(Album album) {
+    downloadItems(musicRepository.albumItems(album));
+  }
+
+  public void download(Artist artist) {
+    downloadItems(musicRepository.artistItems(artist)
+        .flattenAsFlowable(items -> items)
+        .ofType(Album.class)
+        .concatMapSingle(musicRepository::albumItems)
+        .flatMapIterable(items -> items)
+        .toList());
+  }
+
+  public void download(List<Track> tracks) {
+    downloadItems(Single.just(new ArrayList<>(tracks)));
+  }
+
+  /** @return the downloaded file for the track, or null if it has not been downloaded */
+  @Nullable public File localFile(Track track) {
+    Download download = manifest.get(Download.id(track));
+    if (download == null || !download.completed()) {
+      return null;
+    }
+    File file = downloader.file(download);
+    return file.exists() ? file : null;
+  }
+
+  private void downloadItems(Single<List<PlexItem>> items) {
+    items.subscribeOn(rx.io())
+        .flattenAsFlowable(list -> list)
+        .ofType(Track.class)
+        .toList()
+        .subscribe(this::enqueueTracks, Rx::onError);
+  }
+
+  private void enqueueTracks(List<Track> tracks) {
+    startWorker();
+    for (Track track : tracks) {
+      String id = Download.id(track);
+      Download download = manifest.get(id);
+      if (download == null) {
+        download = Download.builder()
+            .id(id)
+            .title(track.title())
+            .server(track.uri().toString())
+            .partKey(partKey(track))
+            .fileName(id)
+            .build();
+        manifest.put(download);
+      }
+      if (!download.completed()) {
+        enqueue(download);
+      }
+    }
+  }
+
+  private static String partKey(Track track) {
+    HttpUrl source = HttpUrl.parse(track.source());
+    return source != null ? source.encodedPath() : track.source();
+  }
+
+  /** Rebuilds the url so that a resumed download uses a connection that works now. */
+  @Nullable private HttpUrl url(Download download) {
+    HttpUrl server = HttpUrl.parse(download.server());
+    if (server == null) {
+      return null;
+    }
+    return serverConnections.fastest(server.newBuilder().encodedPath(download.partKey()).build());
+  }
+
+  private synchronized void startWorker() {
+    if (worker == null) {
+      worker = pendingRelay.toFlowable(BackpressureStrategy.BUFFER)
+          .flatMapCompletable(download -> run(download).subscribeOn(rx.io()), false,
+              MAX_CONCURRENT_DOWNLOADS)
+          .subscribe(() -> { }, Rx::onError);
+    }
+  }
+
+  private void enqueue(Download download) {
+    synchronized (pending) {
+      if (!pending.add(download.id())) {
+        return;
+      }
+    }
+    metrics.increment("download.queued");
+    pendingRelay.accept(download);
+  }
+
+  private Completable run(Download download) {
+    return Completable.create(emitter -> {
+      AtomicBoolean canceled = new AtomicBoolean();
+      emitter.setCancellable(() -> canceled.set(true));
+      if (downloader.partFile(download).exists()) {
+        metrics.increment("download.resumed");
+      }
+      HttpUrl url = url(download);
+      if (url == null) {
+        emitter.tryOnError(new IOException("Bad server url " + download.server()));
+        return;
+      }
+      long start = AndroidClock.DEFAULT.elapsedRealTime();
+      long[] transferred = new long[1];
+      try {
+        Download completed = downloader.download(download, url,
+            (bytesDownloaded, contentLength, newBytes) -> {
+              transferred[0] += newBytes;
+              metrics.add("download.bytes", newBytes);
+            }, canceled);
+        manifest.put(completed);
+        long elapsed = Math.max(1, AndroidClock.DEFAULT.elapsedRealTime() - start);
+        metrics.record("download.throughput_kbps", transferred[0] * 8 / elapsed);
+        metrics.increment("download.completed");
+        Timber.d("Downloaded %s (%d bytes in %d ms)", download.title(), transferred[0], elapsed);
+        emitter.onComplete();
+      } catch (IOException e) {
+        emitter.tryOnError(e);
+      }
+    })
+        .doOnError(throwable -> {
+          metrics.increment("download.failed");
+          Timber.w("Download of %s failed %s", download.title(), throwable.getMessage());
+        })
+        .onErrorComplete()
+        .doFinally(() -> {
+          synchronized (pending) {
+            pending.remove(download.id());
+          }
+        });
+  }
+}
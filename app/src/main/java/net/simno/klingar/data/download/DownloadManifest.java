@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.download;
+
+import android.util.AtomicFile;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+
+import net.simno.klingar.data.model.Download;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okio.BufferedSource;
+import okio.Okio;
+import timber.log.Timber;
+
+/** The list of downloads, written to disk on every change so it survives process death. */
+class DownloadManifest {
+
+  private final Map<String, Download> downloads = new LinkedHashMap<>();
+  private final AtomicFile file;
+  private final JsonAdapter<List<Download>> adapter;
+  private boolean loaded;
+
+  DownloadManifest(File file) {
+    this.file = new AtomicFile(file);
+    Moshi moshi = new Moshi.Builder()
+        .add((type, annotations, m) ->
+            type.equals(Download.class) ? Download.jsonAdapter(m) : null)
+        .build();
+    this.adapter = moshi.adapter(Types.newParameterizedType(List.class, Download.class));
+  }
+
+  synchronized Download get(String id) {
+    load();
+    return downloads.get(id);
+  }
+
+  synchronized List<Download> all() {
+    load();
+    return new ArrayList<>(downloads.values());
+  }
+
+  synchronized void put(Download download) {
+    load();
+    downloads.put(download.id(), download);
+    save();
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (!file.getBaseFile().exists()) {
+      return;
+    }
+    try (BufferedSource source = Okio.buffer(Okio.source(file.openRead()))) {
+      List<Download> list = adapter.fromJson(source);
+      if (list != null) {
+        for (Download download : list) {
+          downloads.put(download.id(), download);
+        }
+      }
+    } catch (IOException | JsonDataException e) {
+      Timber.e(e, "Failed to read download manifest");
+    }
+  }
+
+  private void save() {
+    File directory = file.getBaseFile().getParentFile();
+    if (directory != null && !directory.exists() && !directory.mkdirs()) {
+      Timber.e("Failed to create %s", directory);
+      return;
+    }
+    FileOutputStream stream = null;
+    try {
+      stream = file.startWrite();
+      String json = adapter.toJson(new ArrayList<>(downloads.values()));
+      stream.write(json.getBytes(StandardCharsets.UTF_8));
+      file.finishWrite(stream);
+    } catch (IOException e) {
+      Timber.e(e, "Failed to write download manifest");
+      if (stream != null) {
+        file.failWrite(stream);
+      }
+    }
+  }
+}
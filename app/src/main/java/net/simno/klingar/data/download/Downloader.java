@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.download;
+
+import net.simno.klingar.data.model.Download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Downloads a single file into a {@code .part} file and renames it when complete. An existing
+ * {@code .part} file is resumed with a range request.
+ */
+class Downloader {
+
+  static final String PART_SUFFIX = ".part";
+
+  private static final int HTTP_PARTIAL = 206;
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+|\\*)(?:-\\d+)?/(\\d+)");
+
+  private final Call.Factory callFactory;
+  private final File directory;
+
+  Downloader(Call.Factory callFactory, File directory) {
+    this.callFactory = callFactory;
+    this.directory = directory;
+  }
+
+  File file(Download download) {
+    return new File(directory, download.fileName());
+  }
+
+  File partFile(Download download) {
+    return new File(directory, download.fileName() + PART_SUFFIX);
+  }
+
+  /**
+   * Blocks until the download is complete.
+   *
+   * @param url where to download the track from, see {@link Download#partKey()}
+   * @return the completed download
+   * @throws InterruptedIOException if canceled, the {@code .part} file is kept for resuming
+   */
+  Download download(Download download, HttpUrl url, ProgressListener listener,
+                    AtomicBoolean canceled) throws IOException {
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Failed to create " + directory);
+    }
+
+    File part = partFile(download);
+    long offset = part.length();
+
+    Request.Builder request = new Request.Builder().url(url);
+    if (offset > 0) {
+      request.header("Range", "bytes=" + offset + "-");
+    }
+
+    long contentLength;
+    try (Response response = callFactory.newCall(request.build()).execute()) {
+      if (offset > 0 && response.code() == HTTP_RANGE_NOT_SATISFIABLE) {
+        // Every byte was written before, but the file was never renamed
+        contentLength = totalLength(response.header("Content-Range"));
+        if (contentLength != offset) {
+          deletePart(part);
+          throw new IOException("Range not satisfiable for " + download.title());
+        }
+      } else if (!response.isSuccessful()) {
+        throw new IOException("HTTP " + response.code() + " for " + download.title());
+      } else {
+        boolean resumed = response.code() == HTTP_PARTIAL;
+        if (resumed && startOffset(response.header("Content-Range")) != offset) {
+          deletePart(part);
+          throw new IOException("Unexpected Content-Range for " + download.title());
+        }
+        if (!resumed) {
+          offset = 0;
+        }
+        ResponseBody body = response.body();
+        long bodyLength = body.contentLength();
+        contentLength = bodyLength < 0 ? -1 : offset + bodyLength;
+        listener.onProgress(offset, contentLength, 0);
+        write(body.source(), part, resumed, offset, contentLength, listener, canceled);
+      }
+    }
+
+    if (contentLength >= 0 && part.length() != contentLength) {
+      throw new IOException("Incomplete download of " + download.title());
+    }
+    File file = file(download);
+    if (!part.renameTo(file)) {
+      throw new IOException("Failed to rename " + part);
+    }
+    return download.toBuilder()
+        .contentLength(file.length())
+        .completed(true)
+        .build();
+  }
+
+  private static void write(BufferedSource source, File part, boolean append, long offset,
+                            long contentLength, ProgressListener listener, AtomicBoolean canceled)
+      throws IOException {
+    try (BufferedSink sink = Okio.buffer(append ? Okio.appendingSink(part) : Okio.sink(part))) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long downloaded = offset;
+      int read;
+      while ((read = source.read(buffer)) != -1) {
+        if (canceled.get()) {
+          throw new InterruptedIOException("Canceled");
+        }
+        sink.write(buffer, 0, read);
+        downloaded += read;
+        listener.onProgress(downloaded, contentLength, read);
+      }
+    }
+  }
+
+  private static void deletePart(File part) {
+    //noinspection ResultOfMethodCallIgnored
+    part.delete();
+  }
+
+  private static long startOffset(String contentRange) {
+    Matcher matcher = contentRange != null ? CONTENT_RANGE.matcher(contentRange) : null;
+    if (matcher == null || !matcher.matches() || "*".equals(matcher.group(1))) {
+      return -1;
+    }
+    return Long.parseLong(matcher.group(1));
+  }
+
+  private static long totalLength(String contentRange) {
+    Matcher matcher = contentRange != null ? CONTENT_RANGE.matcher(contentRange) : null;
+    if (matcher == null || !matcher.matches()) {
+      return -1;
+    }
+    return Long.parseLong(matcher.group(2));
+  }
+
+  interface ProgressListener {
+    /**
+     * @param bytesDownloaded total bytes on disk
+     * @param contentLength   length of the file, or -1 if unknown
+     * @param newBytes        bytes written since the last call
+     */
+    void onProgress(long bytesDownloaded, long contentLength, long newBytes);
+  }
+}
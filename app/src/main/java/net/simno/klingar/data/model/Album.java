@@ -38,6 +38,7 @@ public abstract class Album implements PlexItem {
 
   public abstract String libraryId();
 
+  /** Image key on the server, see {@link PlexImage}. */
   @Nullable public abstract String thumb();
 
   @ParcelAdapter(HttpUrlTypeAdapter.class) public abstract HttpUrl uri();
@@ -38,8 +38,10 @@ public abstract class Artist implements PlexItem {
 
   public abstract String libraryId();
 
+  /** Image key on the server, see {@link PlexImage}. */
   @Nullable public abstract String art();
 
+  /** Image key on the server, see {@link PlexImage}. */
   @Nullable public abstract String thumb();
 
   @ParcelAdapter(HttpUrlTypeAdapter.class) public abstract HttpUrl uri();
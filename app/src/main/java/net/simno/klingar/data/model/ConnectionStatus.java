@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.model;
+
+import com.google.auto.value.AutoValue;
+
+import okhttp3.HttpUrl;
+
+/** The result of the latest probes of one server connection. */
+@AutoValue
+public abstract class ConnectionStatus {
+  public static Builder builder() {
+    return new AutoValue_ConnectionStatus.Builder();
+  }
+
+  /** The origin of the connection, scheme, host and port. */
+  public abstract HttpUrl uri();
+
+  public abstract boolean available();
+
+  /** Smoothed round trip time of the successful probes, or -1 if none succeeded. */
+  public abstract long latencyMs();
+
+  /** Number of probes in a row that failed. */
+  public abstract int failures();
+
+  public abstract Builder toBuilder();
+
+  @AutoValue.Builder public abstract static class Builder {
+    public abstract Builder uri(HttpUrl uri);
+    public abstract Builder available(boolean available);
+    public abstract Builder latencyMs(long latencyMs);
+    public abstract Builder failures(int failures);
+    public abstract ConnectionStatus build();
+  }
+}
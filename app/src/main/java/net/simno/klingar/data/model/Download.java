@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.model;
+
+import com.google.auto.value.AutoValue;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+
+@AutoValue
+public abstract class Download {
+  public static Builder builder() {
+    return new AutoValue_Download.Builder()
+        .contentLength(-1)
+        .completed(false);
+  }
+
+  public static JsonAdapter<Download> jsonAdapter(Moshi moshi) {
+    return new AutoValue_Download.MoshiJsonAdapter(moshi);
+  }
+
+  public static String id(Track track) {
+    return track.libraryId() + "-" + track.ratingKey();
+  }
+
+  public abstract String id();
+
+  public abstract String title();
+
+  /** Base url of the connection the track was first downloaded from. */
+  public abstract String server();
+
+  /** Path of the media part on the server, the url is rebuilt from it when a download resumes. */
+  public abstract String partKey();
+
+  public abstract String fileName();
+
+  public abstract long contentLength();
+
+  public abstract boolean completed();
+
+  public abstract Builder toBuilder();
+
+  @AutoValue.Builder public abstract static class Builder {
+    public abstract Builder id(String id);
+    public abstract Builder title(String title);
+    public abstract Builder server(String server);
+    public abstract Builder partKey(String partKey);
+    public abstract Builder fileName(String fileName);
+    public abstract Builder contentLength(long contentLength);
+    public abstract Builder completed(boolean completed);
+    public abstract Download build();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+
+import net.simno.klingar.util.Strings;
+import net.simno.klingar.util.Urls;
+
+import okhttp3.HttpUrl;
+
+/**
+ * An image on a Plex server. Images are always loaded through the server's photo transcoder at
+ * one of a few bucketed sizes, so that every screen asking for roughly the same size shares the
+ * same cache entry and full resolution originals are never downloaded.
+ */
+@AutoValue
+public abstract class PlexImage {
+
+  /** Largest size that is ever requested, used for the player background and Cast. */
+  public static final int MAX_SIZE = 1024;
+
+  private static final int[] SIZES = {128, 256, 512, MAX_SIZE};
+
+  /**
+   * @param key path of the image on the server, e.g. /library/metadata/1337/thumb/1500000000
+   * @return the image, or null if the item has no image
+   */
+  @Nullable public static PlexImage of(@NonNull HttpUrl server, @Nullable String key) {
+    if (Strings.isBlank(key)) {
+      return null;
+    }
+    return new AutoValue_PlexImage(server, key);
+  }
+
+  /** @return the smallest bucketed size that covers the requested width and height */
+  public static int bucket(int width, int height) {
+    int size = Math.max(width, height);
+    if (size <= 0) {
+      // Target.SIZE_ORIGINAL or an unknown size
+      return MAX_SIZE;
+    }
+    for (int bucket : SIZES) {
+      if (size <= bucket) {
+        return bucket;
+      }
+    }
+    return MAX_SIZE;
+  }
+
+  public abstract HttpUrl server();
+
+  public abstract String key();
+
+  @NonNull public HttpUrl url(int width, int height) {
+    int size = bucket(width, height);
+    return Urls.getImageTranscodeUrl(server(), key(), size, size);
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.model;
+
+import com.google.auto.value.AutoValue;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+
+/** A playback state report for the Plex server timeline. */
+@AutoValue
+public abstract class TimelineReport {
+  public static Builder builder() {
+    return new AutoValue_TimelineReport.Builder();
+  }
+
+  public static JsonAdapter<TimelineReport> jsonAdapter(Moshi moshi) {
+    return new AutoValue_TimelineReport.MoshiJsonAdapter(moshi);
+  }
+
+  public abstract String uri();
+
+  public abstract long queueItemId();
+
+  public abstract String key();
+
+  public abstract String ratingKey();
+
+  public abstract String state();
+
+  public abstract long duration();
+
+  public abstract long time();
+
+  @AutoValue.Builder public abstract static class Builder {
+    public abstract Builder uri(String uri);
+    public abstract Builder queueItemId(long queueItemId);
+    public abstract Builder key(String key);
+    public abstract Builder ratingKey(String ratingKey);
+    public abstract Builder state(String state);
+    public abstract Builder duration(long duration);
+    public abstract Builder time(long time);
+    public abstract TimelineReport build();
+  }
+}
@@ -29,7 +29,8 @@ import okhttp3.HttpUrl;
 @AutoValue
 public abstract class Track implements PlexItem {
   public static Builder builder() {
-    return new AutoValue_Track.Builder();
+    return new AutoValue_Track.Builder()
+        .bitrate(0);
   }
 
   public static JsonAdapter<Track> jsonAdapter(Moshi moshi) {
@@ -58,10 +59,25 @@ public abstract class Track implements PlexItem {
 
   public abstract long duration();
 
+  /** Image key on the server, see {@link PlexImage}. */
   @Nullable public abstract String thumb();
 
+  /** Bitrate of the original media in kbps, or 0 if unknown. */
+  public abstract int bitrate();
+
+  @Nullable public abstract String codec();
+
+  @Nullable public abstract String container();
+
   @ParcelAdapter(HttpUrlTypeAdapter.class) public abstract HttpUrl uri();
 
+  public abstract Builder toBuilder();
+
+  /** @return true if the track is in a queue built locally that the server does not know */
+  public boolean isProvisional() {
+    return queueItemId() < 0;
+  }
+
   @AutoValue.Builder public abstract static class Builder {
     public abstract Builder queueItemId(long queueItemId);
     public abstract Builder libraryId(String libraryId);
@@ -75,6 +91,9 @@ public abstract class Track implements PlexItem {
     public abstract Builder index(int index);
     public abstract Builder duration(long duration);
     public abstract Builder thumb(String thumb);
+    public abstract Builder bitrate(int bitrate);
+    public abstract Builder codec(String codec);
+    public abstract Builder container(String container);
     public abstract Builder uri(HttpUrl uri);
     public abstract Track build();
   }
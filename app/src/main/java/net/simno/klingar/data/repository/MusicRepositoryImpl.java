@@ -16,6 +16,7 @@
 package net.simno.klingar.data.repository;
 
 import androidx.annotation.NonNull;
+import androidx.collection.LruCache;
 import androidx.collection.SimpleArrayMap;
 
 import net.simno.klingar.data.Type;
@@ -31,8 +32,8 @@ import net.simno.klingar.data.model.MediaType;
 import net.simno.klingar.data.model.PlexItem;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.util.Pair;
-import net.simno.klingar.util.Strings;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -43,7 +44,6 @@ import io.reactivex.functions.Function;
 import okhttp3.HttpUrl;
 
 import static net.simno.klingar.util.Urls.addPathToUrl;
-import static net.simno.klingar.util.Urls.getTranscodeUrl;
 
 class MusicRepositoryImpl implements MusicRepository {
 
@@ -61,14 +61,28 @@ class MusicRepositoryImpl implements MusicRepository {
     return Observable.fromIterable(container.tracks);
   };
 
+  private static final int CACHE_SIZE = 100;
+
+  // The last result of each request, served when the server can not be reached
+  private final LruCache<String, List<PlexItem>> cache = new LruCache<>(CACHE_SIZE);
   private final MediaService media;
 
   MusicRepositoryImpl(MediaService media) {
     this.media = media;
   }
 
+  private Single<List<PlexItem>> cached(String key, Single<List<PlexItem>> request) {
+    return request
+        .doOnSuccess(items -> cache.put(key, items))
+        .onErrorResumeNext(throwable -> {
+          List<PlexItem> items = throwable instanceof IOException ? cache.get(key) : null;
+          return items != null ? Single.just(items) : Single.error(throwable);
+        });
+  }
+
   @Override public Single<List<PlexItem>> browseLibrary(Library lib) {
-    return Observable.concat(mediaTypes(lib), recentlyPlayed(lib)).toList();
+    return cached("library/" + lib.uuid(),
+        Observable.concat(mediaTypes(lib), recentlyPlayed(lib)).toList());
   }
 
   private Observable<PlexItem> mediaTypes(Library lib) {
@@ -108,6 +122,11 @@ class MusicRepositoryImpl implements MusicRepository {
   }
 
   @Override public Single<List<PlexItem>> browseMediaType(MediaType mt, int offset) {
+    return cached("browse/" + mt.libraryId() + "/" + mt.mediaKey() + "/" + offset,
+        browse(mt, offset));
+  }
+
+  private Single<List<PlexItem>> browse(MediaType mt, int offset) {
     Single<List<PlexItem>> browseItems;
 
     if (mt.type() == Type.ARTIST) {
@@ -172,6 +191,10 @@ class MusicRepositoryImpl implements MusicRepository {
   }
 
   @Override public Single<List<PlexItem>> artistItems(Artist artist) {
+    return cached("artist/" + artist.libraryId() + "/" + artist.ratingKey(), artist(artist));
+  }
+
+  private Single<List<PlexItem>> artist(Artist artist) {
     return Single.zip(popularTracks(artist), albums(artist), (tracks, albums) -> {
       List<PlexItem> items = new ArrayList<>();
       if (!tracks.isEmpty()) {
@@ -201,10 +224,11 @@ class MusicRepositoryImpl implements MusicRepository {
   }
 
   @Override public Single<List<PlexItem>> albumItems(Album album) {
-    return media.tracks(album.uri(), album.ratingKey())
-        .flatMap(TRACKS)
-        .map(trackMapper(album.libraryId(), album.uri()))
-        .toList();
+    return cached("album/" + album.libraryId() + "/" + album.ratingKey(),
+        media.tracks(album.uri(), album.ratingKey())
+            .flatMap(TRACKS)
+            .map(trackMapper(album.libraryId(), album.uri()))
+            .toList());
   }
 
   @Override public Single<Pair<List<Track>, Long>> createPlayQueue(Track track) {
@@ -223,7 +247,7 @@ class MusicRepositoryImpl implements MusicRepository {
         .ratingKey(dir.ratingKey)
         .artistTitle(dir.parentTitle)
         .libraryId(libraryId)
-        .thumb(getTranscodeUrl(uri, dir.thumb))
+        .thumb(dir.thumb)
         .uri(uri)
         .build();
   }
@@ -235,8 +259,8 @@ class MusicRepositoryImpl implements MusicRepository {
         .ratingKey(dir.ratingKey)
         .libraryKey(libKey)
         .libraryId(libraryId)
-        .art(getTranscodeUrl(uri, dir.art))
-        .thumb(getTranscodeUrl(uri, dir.thumb))
+        .art(dir.art)
+        .thumb(dir.thumb)
         .uri(uri)
         .build();
   }
@@ -253,8 +277,11 @@ class MusicRepositoryImpl implements MusicRepository {
         .artistTitle(track.grandparentTitle)
         .index(track.index)
         .duration(track.duration)
-        .thumb(Strings.isBlank(track.thumb) ? null : addPathToUrl(uri, track.thumb).toString())
+        .thumb(track.thumb)
         .source(addPathToUrl(uri, track.media.part.key).toString())
+        .bitrate(track.media.bitrate)
+        .codec(track.media.audioCodec)
+        .container(track.media.container)
         .uri(uri)
         .build();
   }
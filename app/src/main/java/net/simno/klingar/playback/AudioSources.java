@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.ProgressiveMediaSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
+
+import net.simno.klingar.data.download.DownloadManager;
+import net.simno.klingar.data.model.Track;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * Decides where the audio for a track is read from, a downloaded file or a stream from the
+ * server, and creates the media sources for {@link LocalPlayback}.
+ */
+class AudioSources {
+
+  /** Enough of the start of a track to begin playing while the rest streams. */
+  private static final long PRECACHED_HEAD_BYTES = 256 * 1024;
+
+  private final Cache cache;
+  private final DownloadManager downloadManager;
+  private final StreamSelector streamSelector;
+  private final StartupTimer startupTimer;
+  private final ProgressiveMediaSource.Factory mediaSourceFactory;
+  /** The uri of the track that was loaded last, only its transfers are startup stages. */
+  private volatile Uri startupUri;
+
+  private final TransferListener startupTransferListener = new TransferListener() {
+    @Override public void onTransferInitializing(DataSource source, DataSpec dataSpec,
+                                                 boolean isNetwork) {
+    }
+
+    @Override public void onTransferStart(DataSource source, DataSpec dataSpec,
+                                          boolean isNetwork) {
+      if (isStartup(dataSpec)) {
+        startupTimer.mark(StartupTimer.CONNECT);
+      }
+    }
+
+    @Override public void onBytesTransferred(DataSource source, DataSpec dataSpec,
+                                             boolean isNetwork, int bytesTransferred) {
+      if (isStartup(dataSpec)) {
+        startupTimer.mark(StartupTimer.FIRST_BYTE);
+      }
+    }
+
+    @Override public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    }
+  };
+
+  /** @param httpFactory creates the data sources for streaming from the server */
+  AudioSources(Context context, DataSource.Factory httpFactory, Cache cache,
+               DownloadManager downloadManager, StreamSelector streamSelector,
+               StartupTimer startupTimer) {
+    this.cache = cache;
+    this.downloadManager = downloadManager;
+    this.streamSelector = streamSelector;
+    this.startupTimer = startupTimer;
+    DataSource.Factory upstreamFactory = () -> {
+      DataSource dataSource = httpFactory.createDataSource();
+      dataSource.addTransferListener(startupTransferListener);
+      return dataSource;
+    };
+    // Read through the audio cache so that tracks precached by the Precacher start from disk.
+    this.mediaSourceFactory = new ProgressiveMediaSource.Factory(new DefaultDataSourceFactory(
+        context, null, new CacheDataSourceFactory(cache, upstreamFactory,
+        CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR)));
+  }
+
+  /**
+   * Compares path and query only, a failover moves the same stream to another connection of the
+   * server.
+   */
+  private boolean isStartup(DataSpec dataSpec) {
+    Uri uri = startupUri;
+    return uri != null
+        && Objects.equals(uri.getEncodedPath(), dataSpec.uri.getEncodedPath())
+        && Objects.equals(uri.getEncodedQuery(), dataSpec.uri.getEncodedQuery());
+  }
+
+  static boolean isLocal(Uri uri) {
+    return "file".equals(uri.getScheme());
+  }
+
+  /** Prefers a downloaded file over streaming from the server. */
+  Uri uri(Track track) {
+    File file = downloadManager.localFile(track);
+    if (file != null) {
+      return Uri.fromFile(file);
+    }
+    // The Precacher caches the original file, keyed by its url
+    return streamSelector.select(track, cache.isCached(track.source(), 0, PRECACHED_HEAD_BYTES));
+  }
+
+  MediaSource createMediaSource(Uri uri) {
+    startupUri = uri;
+    return mediaSourceFactory.createMediaSource(uri);
+  }
+
+  /** @return estimated bandwidth in bits per second */
+  long bandwidthEstimate() {
+    return streamSelector.bandwidthEstimate();
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/**
+ * How much audio {@link LocalPlayback} buffers ahead. Chosen from the device memory class and the
+ * quality of the connection each time a track is loaded, see {@link ProfileLoadControl}.
+ */
+@SuppressWarnings("deprecation")
+enum BufferProfile {
+  /** Short buffer with a byte cap for devices with little memory. */
+  LOW_MEMORY("low_memory", 10000, 30000, 2500, 5000, 4 * 1024 * 1024),
+  /** The ExoPlayer defaults. */
+  BALANCED("balanced", DefaultLoadControl.DEFAULT_MIN_BUFFER_MS,
+      DefaultLoadControl.DEFAULT_MAX_BUFFER_MS, DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+      DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS, C.LENGTH_UNSET),
+  /** Buffers minutes ahead so that connection drops on mobile or remote servers are not heard. */
+  DEEP("deep", 60000, 300000, 2500, 10000, 64 * 1024 * 1024);
+
+  private static final int LOW_MEMORY_CLASS_MB = 96;
+  private static final long UNSTABLE_BANDWIDTH = 2000000;
+
+  final String key;
+  private final int minBufferMs;
+  private final int maxBufferMs;
+  private final int bufferForPlaybackMs;
+  private final int bufferForPlaybackAfterRebufferMs;
+  private final int targetBufferBytes;
+
+  BufferProfile(String key, int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                int bufferForPlaybackAfterRebufferMs, int targetBufferBytes) {
+    this.key = key;
+    this.minBufferMs = minBufferMs;
+    this.maxBufferMs = maxBufferMs;
+    this.bufferForPlaybackMs = bufferForPlaybackMs;
+    this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+    this.targetBufferBytes = targetBufferBytes;
+  }
+
+  static BufferProfile select(boolean lowMemory, boolean unstableNetwork) {
+    if (lowMemory) {
+      return LOW_MEMORY;
+    }
+    return unstableNetwork ? DEEP : BALANCED;
+  }
+
+  /** @param bandwidthEstimate estimated bandwidth in bits per second */
+  static BufferProfile select(Context context, long bandwidthEstimate) {
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    boolean lowMemory = activityManager != null && (activityManager.isLowRamDevice()
+        || activityManager.getMemoryClass() <= LOW_MEMORY_CLASS_MB);
+
+    ConnectivityManager connectivityManager =
+        (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    NetworkInfo network = connectivityManager != null
+        ? connectivityManager.getActiveNetworkInfo() : null;
+    boolean mobile = network != null && network.getType() != ConnectivityManager.TYPE_WIFI
+        && network.getType() != ConnectivityManager.TYPE_ETHERNET;
+
+    return select(lowMemory, mobile || bandwidthEstimate < UNSTABLE_BANDWIDTH);
+  }
+
+  LoadControl createLoadControl(DefaultAllocator allocator) {
+    return new DefaultLoadControl.Builder()
+        .setAllocator(allocator)
+        .setBufferDurationsMs(minBufferMs, maxBufferMs, bufferForPlaybackMs,
+            bufferForPlaybackAfterRebufferMs)
+        .setTargetBufferBytes(targetBufferBytes)
+        .setPrioritizeTimeOverSizeThresholds(targetBufferBytes == C.LENGTH_UNSET)
+        .createDefaultLoadControl();
+  }
+}
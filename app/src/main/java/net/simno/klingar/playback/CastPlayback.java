@@ -18,57 +18,105 @@ package net.simno.klingar.playback;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v4.media.session.PlaybackStateCompat.State;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.gms.cast.MediaInfo;
-import com.google.android.gms.cast.MediaLoadOptions;
 import com.google.android.gms.cast.MediaMetadata;
+import com.google.android.gms.cast.MediaQueueItem;
 import com.google.android.gms.cast.MediaSeekOptions;
 import com.google.android.gms.cast.MediaStatus;
 import com.google.android.gms.cast.framework.CastContext;
 import com.google.android.gms.cast.framework.CastSession;
 import com.google.android.gms.cast.framework.media.RemoteMediaClient;
 import com.google.android.gms.common.images.WebImage;
-import com.squareup.moshi.JsonAdapter;
-import com.squareup.moshi.Moshi;
 
+import net.simno.klingar.data.model.PlexImage;
 import net.simno.klingar.data.model.Track;
+import net.simno.klingar.util.Pair;
+import net.simno.klingar.util.Rx;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import okhttp3.HttpUrl;
 import timber.log.Timber;
 
 /**
- * An implementation of Playback that talks to Cast.
+ * An implementation of Playback that talks to Cast. It is used on the {@link PlaybackThread}, but
+ * the remote media client only works on the main thread, so commands are posted to the main thread
+ * and remote updates are posted back to the playback thread.
+ *
+ * <p>Tracks are loaded as a window of the play queue, see {@link CastQueue}, so the receiver
+ * preloads the next track and plays it without waiting for the app.
  */
 class CastPlayback implements Playback {
 
   private static final String MIME_TYPE_AUDIO_MPEG = "audio/mpeg";
-  private static final String CUSTOM_DATA_TRACK = "custom_data_track";
-
-  private final JsonAdapter<Track> jsonAdapter = Track.jsonAdapter(new Moshi.Builder().build());
-  private final Context appContext;
+  private static final String CUSTOM_DATA_RATING_KEY = "rating_key";
+  private static final String CUSTOM_DATA_LIBRARY_ID = "library_id";
+  private static final String TRACK_KEY_PREFIX = "/library/metadata/";
+  private static final String TOKEN = "X-Plex-Token";
+  private static final int MAX_REMOTE_TRACKS = 32;
+  private static final long PROGRESS_INTERVAL_MS = 1000;
+  private static final double PRELOAD_TIME_S = 20;
+
+  // Tracks decoded from remote metadata by content id, only used on the playback thread
+  private final Map<String, Track> remoteTracks =
+      new LinkedHashMap<String, Track>(MAX_REMOTE_TRACKS, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Track> eldest) {
+          return size() > MAX_REMOTE_TRACKS;
+        }
+      };
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Handler playbackHandler;
+  private final QueueManager queueManager;
+  private final CastSession castSession;
   private final RemoteMediaClient remoteMediaClient;
-  private final RemoteMediaClient.Callback remoteMediaClientCallback;
+  private final CastMediaClientCallback remoteMediaClientCallback;
   private Callback callback;
   @State private int state;
-  private volatile int playerState;
+  private int playerState;
   private volatile int currentPosition;
   private volatile Track currentTrack;
-
-  CastPlayback(Context context) {
-    appContext = context.getApplicationContext();
-    CastSession castSession = CastContext.getSharedInstance(appContext).getSessionManager()
+  // Remote state copied on the main thread
+  private volatile boolean connected;
+  private volatile boolean hasMediaSession;
+  private volatile int remotePosition;
+  // Receiver item that is playing and the receiver's queue
+  private volatile Pair<Integer, List<CastQueue.RemoteItem>> remoteQueue =
+      new Pair<>(MediaQueueItem.INVALID_ITEM_ID, Collections.emptyList());
+  // Whether queue changes were sent and the receiver has not reported back yet
+  private boolean syncPending;
+  // Called when a prepared track is loaded on the receiver, or failed to load
+  private Runnable onReady;
+  private Runnable onError;
+  private Disposable queueDisposable;
+
+  /** Must be created on the main thread. */
+  CastPlayback(Context context, Handler playbackHandler, QueueManager queueManager) {
+    this.playbackHandler = playbackHandler;
+    this.queueManager = queueManager;
+    castSession = CastContext.getSharedInstance(context.getApplicationContext())
+        .getSessionManager()
         .getCurrentCastSession();
     remoteMediaClient = castSession.getRemoteMediaClient();
     remoteMediaClientCallback = new CastMediaClientCallback();
+    remoteMediaClientCallback.copyRemoteState();
   }
 
   private static MediaInfo toCastMediaMetadata(Track track, JSONObject customData) {
@@ -77,11 +125,15 @@ class CastPlayback implements Playback {
     mediaMetadata.putString(MediaMetadata.KEY_SUBTITLE, track.artistTitle());
     mediaMetadata.putString(MediaMetadata.KEY_ALBUM_ARTIST, track.artistTitle());
     mediaMetadata.putString(MediaMetadata.KEY_ALBUM_TITLE, track.albumTitle());
-    WebImage image = new WebImage(new Uri.Builder().encodedPath(track.thumb()).build());
-    // First image is used by the receiver for showing the audio album art.
-    mediaMetadata.addImage(image);
-    // Second image is used by Cast Library when the cast dialog is clicked.
-    mediaMetadata.addImage(image);
+    PlexImage thumb = PlexImage.of(track.uri(), track.thumb());
+    if (thumb != null) {
+      HttpUrl url = thumb.url(PlexImage.MAX_SIZE, PlexImage.MAX_SIZE);
+      WebImage image = new WebImage(Uri.parse(url.toString()));
+      // First image is used by the receiver for showing the audio album art.
+      mediaMetadata.addImage(image);
+      // Second image is used by Cast Library when the cast dialog is clicked.
+      mediaMetadata.addImage(image);
+    }
 
     //noinspection ResourceType
     return new MediaInfo.Builder(track.source())
@@ -127,11 +179,23 @@ class CastPlayback implements Playback {
   }
 
   @Override public void start() {
-    remoteMediaClient.registerCallback(remoteMediaClientCallback);
+    mainHandler.post(() -> {
+      remoteMediaClient.registerCallback(remoteMediaClientCallback);
+      remoteMediaClient.addProgressListener(remoteMediaClientCallback, PROGRESS_INTERVAL_MS);
+    });
+    queueDisposable = queueManager.queue()
+        .observeOn(AndroidSchedulers.from(playbackHandler.getLooper()))
+        .subscribe(pair -> syncQueue(), Rx::onError);
   }
 
   @Override public void stop(boolean notifyListeners) {
-    remoteMediaClient.unregisterCallback(remoteMediaClientCallback);
+    onReady = null;
+    onError = null;
+    Rx.dispose(queueDisposable);
+    mainHandler.post(() -> {
+      remoteMediaClient.unregisterCallback(remoteMediaClientCallback);
+      remoteMediaClient.removeProgressListener(remoteMediaClientCallback);
+    });
     state = PlaybackStateCompat.STATE_STOPPED;
     if (notifyListeners && callback != null) {
       callback.onPlaybackStatusChanged();
@@ -142,7 +206,7 @@ class CastPlayback implements Playback {
     if (!isConnected()) {
       return currentPosition;
     }
-    return (int) remoteMediaClient.getApproximateStreamPosition();
+    return remotePosition;
   }
 
   @Override public void updateLastKnownStreamPosition() {
@@ -165,11 +229,44 @@ class CastPlayback implements Playback {
     }
   }
 
+  @Override public void prepare(Track track, int position, Runnable onReady, Runnable onError) {
+    Timber.d("prepare %s %s", track, position);
+    currentTrack = track;
+    currentPosition = position;
+    this.onReady = onReady;
+    this.onError = onError;
+    try {
+      loadMedia(track, false);
+    } catch (JSONException e) {
+      Timber.e(e, "Exception preparing media");
+      // Posted so the handover is not aborted while it is still starting this playback
+      playbackHandler.post(this::notifyError);
+    }
+  }
+
+  private void notifyReady() {
+    Runnable ready = onReady;
+    onReady = null;
+    onError = null;
+    if (ready != null) {
+      ready.run();
+    }
+  }
+
+  private void notifyError() {
+    Runnable error = onError;
+    onReady = null;
+    onError = null;
+    if (error != null) {
+      error.run();
+    }
+  }
+
   @Override public void pause() {
     try {
-      if (remoteMediaClient.hasMediaSession()) {
-        remoteMediaClient.pause();
-        currentPosition = (int) remoteMediaClient.getApproximateStreamPosition();
+      if (hasMediaSession) {
+        mainHandler.post(remoteMediaClient::pause);
+        currentPosition = remotePosition;
       } else {
         loadMedia(currentTrack, false);
       }
@@ -191,8 +288,9 @@ class CastPlayback implements Playback {
       return;
     }
     try {
-      if (remoteMediaClient.hasMediaSession()) {
-        remoteMediaClient.seek(new MediaSeekOptions.Builder().setPosition(position).build());
+      if (hasMediaSession) {
+        MediaSeekOptions seekOptions = new MediaSeekOptions.Builder().setPosition(position).build();
+        mainHandler.post(() -> remoteMediaClient.seek(seekOptions));
         currentPosition = position;
       } else {
         currentPosition = position;
@@ -220,13 +318,11 @@ class CastPlayback implements Playback {
   }
 
   @Override public boolean isConnected() {
-    CastSession castSession = CastContext.getSharedInstance(appContext).getSessionManager()
-        .getCurrentCastSession();
-    return castSession != null && castSession.isConnected();
+    return connected;
   }
 
   @Override public boolean isPlaying() {
-    return isConnected() && remoteMediaClient.isPlaying();
+    return isConnected() && playerState == MediaStatus.PLAYER_STATE_PLAYING;
   }
 
   @Override @State public int getState() {
@@ -239,48 +335,190 @@ class CastPlayback implements Playback {
       currentTrack = track;
       currentPosition = 0;
     }
-    JSONObject customData = new JSONObject();
-    customData.put(CUSTOM_DATA_TRACK, jsonAdapter.toJson(track));
-    MediaInfo media = toCastMediaMetadata(track, customData);
-    MediaLoadOptions loadOptions = new MediaLoadOptions.Builder()
+    long position = currentPosition;
+
+    Integer itemId = remoteItemId(track);
+    if (autoPlay && hasMediaSession && itemId != null && itemId.equals(remoteQueue.first)
+        && playerState == MediaStatus.PLAYER_STATE_PAUSED) {
+      // Loaded and paused, e.g. prepared for a handover
+      mainHandler.post(remoteMediaClient::play);
+      return;
+    }
+    if (autoPlay && hasMediaSession && itemId != null) {
+      // Already in the receiver's queue and probably buffered
+      mainHandler.post(() -> remoteMediaClient.queueJumpToItem(itemId, position, null));
+      syncPending = true;
+      return;
+    }
+
+    List<Track> window = queueManager.window(CastQueue.WINDOW_SIZE);
+    if (window.isEmpty() || !window.get(0).equals(track)) {
+      window = Collections.singletonList(track);
+    }
+    MediaQueueItem[] items = new MediaQueueItem[window.size()];
+    for (int i = 0; i < items.length; ++i) {
+      items[i] = toQueueItem(window.get(i), i > 0 || autoPlay);
+    }
+    mainHandler.post(() -> remoteMediaClient.queueLoad(items, 0,
+        MediaStatus.REPEAT_MODE_REPEAT_OFF, position, null));
+    syncPending = true;
+  }
+
+  private MediaQueueItem toQueueItem(Track track, boolean autoPlay) throws JSONException {
+    JSONObject customData = customData(track);
+    return new MediaQueueItem.Builder(toCastMediaMetadata(track, customData))
         .setAutoplay(autoPlay)
-        .setPlayPosition(currentPosition)
+        .setPreloadTime(PRELOAD_TIME_S)
         .setCustomData(customData)
         .build();
-    remoteMediaClient.load(media, loadOptions);
   }
 
-  private void setMetadataFromRemote() {
+  /** Only identifies the track, the rest is known locally or sent as media metadata. */
+  private static JSONObject customData(Track track) throws JSONException {
+    JSONObject customData = new JSONObject();
+    customData.put(CastQueue.CUSTOM_DATA_QUEUE_ITEM_ID, track.queueItemId());
+    customData.put(CUSTOM_DATA_RATING_KEY, track.ratingKey());
+    customData.put(CUSTOM_DATA_LIBRARY_ID, track.libraryId());
+    return customData;
+  }
+
+  @Nullable private Integer remoteItemId(Track track) {
+    for (CastQueue.RemoteItem item : remoteQueue.second) {
+      if (queueManager.resolve(item.queueItemId) == track.queueItemId()) {
+        return item.itemId;
+      }
+    }
+    return null;
+  }
+
+  /** Makes the tracks after the current one in the receiver match the local queue. */
+  private void syncQueue() {
+    if (syncPending || !hasMediaSession) {
+      return;
+    }
+    Pair<Integer, List<CastQueue.RemoteItem>> remote = remoteQueue;
+    // Items loaded from a provisional queue are matched with the queue that reconciled it
+    List<CastQueue.RemoteItem> items = new ArrayList<>();
+    for (CastQueue.RemoteItem item : remote.second) {
+      items.add(new CastQueue.RemoteItem(item.itemId, queueManager.resolve(item.queueItemId)));
+    }
+    CastQueue.Plan plan = CastQueue.plan(items, remote.first,
+        queueManager.window(CastQueue.WINDOW_SIZE));
+    if (plan == null || plan.isEmpty()) {
+      return;
+    }
+    try {
+      int[] remove = new int[plan.remove.size()];
+      for (int i = 0; i < remove.length; ++i) {
+        remove[i] = plan.remove.get(i);
+      }
+      MediaQueueItem[] insert = new MediaQueueItem[plan.insert.size()];
+      for (int i = 0; i < insert.length; ++i) {
+        insert[i] = toQueueItem(plan.insert.get(i), true);
+      }
+      Timber.d("syncQueue remove %s insert %s", remove.length, insert.length);
+      mainHandler.post(() -> {
+        if (remove.length > 0) {
+          remoteMediaClient.queueRemoveItems(remove, null);
+        }
+        if (insert.length > 0) {
+          remoteMediaClient.queueInsertItems(insert, MediaQueueItem.INVALID_ITEM_ID, null);
+        }
+      });
+      syncPending = true;
+    } catch (JSONException e) {
+      Timber.e(e, "Exception syncing cast queue");
+    }
+  }
+
+  private void setMetadataFromRemote(MediaInfo mediaInfo) {
     // Sync: We get the customData from the remote media information and update the local
     // metadata if it happens to be different from the one we are currently using.
     // This can happen when the app was either restarted/disconnected + connected, or if the
     // app joins an existing session while the Chromecast was playing a queue.
-    try {
-      MediaInfo mediaInfo = remoteMediaClient.getMediaInfo();
-      if (mediaInfo == null) {
-        return;
-      }
-      JSONObject customData = mediaInfo.getCustomData();
-      if (customData != null && customData.has(CUSTOM_DATA_TRACK)) {
-        Track remoteTrack = jsonAdapter.fromJson(customData.getString(CUSTOM_DATA_TRACK));
-        Timber.d("setMetadataFromRemote %s", remoteTrack);
-        if (!Objects.equals(remoteTrack, currentTrack)) {
-          currentTrack = remoteTrack;
-          if (callback != null) {
-            callback.setCurrentTrack(remoteTrack);
-          }
-          updateLastKnownStreamPosition();
-        }
+    if (mediaInfo == null || mediaInfo.getCustomData() == null) {
+      return;
+    }
+    Track remoteTrack = remoteTrack(mediaInfo);
+    if (remoteTrack != null && !Objects.equals(remoteTrack, currentTrack)) {
+      Timber.d("setMetadataFromRemote %s", remoteTrack);
+      currentTrack = remoteTrack;
+      // A track rebuilt from remote metadata must not replace a local queue it is not part of
+      if (callback != null && (queueManager.find(remoteTrack.queueItemId()) != null
+          || queueManager.window(1).isEmpty())) {
+        callback.setCurrentTrack(remoteTrack);
       }
-    } catch (JSONException | IOException e) {
-      Timber.e(e, "Exception processing update metadata");
+      updateLastKnownStreamPosition();
+    }
+  }
+
+  @Nullable private Track remoteTrack(MediaInfo mediaInfo) {
+    JSONObject customData = mediaInfo.getCustomData();
+    long queueItemId = queueManager.resolve(
+        customData.optLong(CastQueue.CUSTOM_DATA_QUEUE_ITEM_ID, Long.MIN_VALUE));
+    Track track = remoteTracks.get(mediaInfo.getContentId());
+    if (track != null && track.queueItemId() == queueItemId) {
+      return track;
+    }
+    track = queueManager.find(queueItemId);
+    if (track == null) {
+      track = trackFromMetadata(mediaInfo, customData, queueItemId);
+    }
+    if (track != null) {
+      remoteTracks.put(mediaInfo.getContentId(), track);
+    }
+    return track;
+  }
+
+  /** Rebuilds a track that is not in the local queue, e.g. when joining a running session. */
+  @Nullable private static Track trackFromMetadata(MediaInfo mediaInfo, JSONObject customData,
+                                                   long queueItemId) {
+    MediaMetadata metadata = mediaInfo.getMetadata();
+    HttpUrl source = HttpUrl.parse(mediaInfo.getContentId());
+    String ratingKey = customData.optString(CUSTOM_DATA_RATING_KEY, null);
+    if (metadata == null || source == null || ratingKey == null
+        || queueItemId == Long.MIN_VALUE) {
+      return null;
+    }
+    return Track.builder()
+        .queueItemId(queueItemId)
+        .libraryId(customData.optString(CUSTOM_DATA_LIBRARY_ID, ""))
+        .key(TRACK_KEY_PREFIX + ratingKey)
+        .ratingKey(ratingKey)
+        .parentKey("")
+        .title(valueOrEmpty(metadata.getString(MediaMetadata.KEY_TITLE)))
+        .albumTitle(valueOrEmpty(metadata.getString(MediaMetadata.KEY_ALBUM_TITLE)))
+        .artistTitle(valueOrEmpty(metadata.getString(MediaMetadata.KEY_ALBUM_ARTIST)))
+        .source(mediaInfo.getContentId())
+        .index(0)
+        .duration(Math.max(0, mediaInfo.getStreamDuration()))
+        .thumb(metadata.hasImages() ? imageKey(metadata.getImages().get(0)) : null)
+        .uri(serverUri(source))
+        .build();
+  }
+
+  /** The server uri of a stream url, with the token that authorizes requests to the server. */
+  static HttpUrl serverUri(HttpUrl source) {
+    HttpUrl.Builder builder = source.newBuilder().encodedPath("/").query(null);
+    String token = source.queryParameter(TOKEN);
+    if (token != null) {
+      builder.addQueryParameter(TOKEN, token);
     }
+    return builder.build();
   }
 
-  private void updatePlaybackState() {
-    int newPlayerState = remoteMediaClient.getPlayerState();
-    int idleReason = remoteMediaClient.getIdleReason();
+  /** Reads the image key back from a transcode url built by {@link PlexImage#url}. */
+  @Nullable private static String imageKey(WebImage image) {
+    HttpUrl url = HttpUrl.parse(image.getUrl().toString());
+    return url != null ? url.queryParameter("url") : null;
+  }
 
+  private static String valueOrEmpty(@Nullable String value) {
+    return value != null ? value : "";
+  }
+
+
+  private void updatePlaybackState(int newPlayerState, int idleReason, MediaInfo mediaInfo) {
     Timber.d("updatePlaybackState %s %s", getPlayerState(playerState), getIdleReason(idleReason));
 
     if (newPlayerState == playerState) {
@@ -295,6 +533,8 @@ class CastPlayback implements Playback {
             currentPosition = 0;
             callback.onCompletion();
           }
+        } else if (idleReason == MediaStatus.IDLE_REASON_ERROR) {
+          notifyError(); // Do not let a handover wait for a track that failed to load
         }
         break;
       case MediaStatus.PLAYER_STATE_BUFFERING:
@@ -305,31 +545,78 @@ class CastPlayback implements Playback {
         break;
       case MediaStatus.PLAYER_STATE_PLAYING:
         state = PlaybackStateCompat.STATE_PLAYING;
-        setMetadataFromRemote();
+        setMetadataFromRemote(mediaInfo);
         if (callback != null) {
           callback.onPlaybackStatusChanged();
         }
+        notifyReady();
         break;
       case MediaStatus.PLAYER_STATE_PAUSED:
         state = PlaybackStateCompat.STATE_PAUSED;
-        setMetadataFromRemote();
+        setMetadataFromRemote(mediaInfo);
         if (callback != null) {
           callback.onPlaybackStatusChanged();
         }
+        notifyReady();
         break;
       default:
     }
   }
 
-  private class CastMediaClientCallback extends RemoteMediaClient.Callback {
+  private void onRemoteQueueUpdated() {
+    syncPending = false;
+    syncQueue();
+  }
+
+  /** Receives remote updates on the main thread. */
+  private class CastMediaClientCallback extends RemoteMediaClient.Callback
+      implements RemoteMediaClient.ProgressListener {
     @Override public void onMetadataUpdated() {
       Timber.d("onMetadataUpdated");
-      setMetadataFromRemote();
+      copyRemoteState();
+      MediaInfo mediaInfo = remoteMediaClient.getMediaInfo();
+      playbackHandler.post(() -> {
+        setMetadataFromRemote(mediaInfo);
+        onRemoteQueueUpdated();
+      });
     }
 
     @Override public void onStatusUpdated() {
       Timber.d("onStatusUpdated");
-      updatePlaybackState();
+      copyRemoteState();
+      int newPlayerState = remoteMediaClient.getPlayerState();
+      int idleReason = remoteMediaClient.getIdleReason();
+      MediaInfo mediaInfo = remoteMediaClient.getMediaInfo();
+      playbackHandler.post(() -> {
+        updatePlaybackState(newPlayerState, idleReason, mediaInfo);
+        onRemoteQueueUpdated();
+      });
+    }
+
+    @Override public void onProgressUpdated(long progressMs, long durationMs) {
+      remotePosition = (int) progressMs;
+    }
+
+    void copyRemoteState() {
+      connected = castSession.isConnected();
+      hasMediaSession = remoteMediaClient.hasMediaSession();
+      remotePosition = (int) remoteMediaClient.getApproximateStreamPosition();
+      MediaStatus status = remoteMediaClient.getMediaStatus();
+      if (status != null) {
+        remoteQueue = new Pair<>(status.getCurrentItemId(), remoteItems(status));
+      }
+    }
+
+    private List<CastQueue.RemoteItem> remoteItems(MediaStatus status) {
+      List<CastQueue.RemoteItem> items = new ArrayList<>();
+      for (MediaQueueItem item : status.getQueueItems()) {
+        JSONObject customData = item.getCustomData();
+        long queueItemId = customData != null
+            ? customData.optLong(CastQueue.CUSTOM_DATA_QUEUE_ITEM_ID, Long.MIN_VALUE)
+            : Long.MIN_VALUE; // Not loaded by us, gets replaced
+        items.add(new CastQueue.RemoteItem(item.getItemId(), queueItemId));
+      }
+      return items;
     }
   }
 }
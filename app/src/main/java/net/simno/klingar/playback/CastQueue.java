@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import androidx.annotation.Nullable;
+
+import net.simno.klingar.data.model.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans the changes that keep a window of the play queue loaded in the Cast receiver, so that it
+ * can buffer the next track before the current one ends.
+ */
+final class CastQueue {
+
+  /** The current track and the tracks the receiver preloads after it. */
+  static final int WINDOW_SIZE = 3;
+  static final String CUSTOM_DATA_QUEUE_ITEM_ID = "queue_item_id";
+
+  private CastQueue() {
+  }
+
+  /**
+   * @param remote        the receiver's queue
+   * @param currentItemId the receiver item that is playing
+   * @param window        the current track followed by the upcoming tracks of the local queue
+   * @return the changes needed to make the items after the current one match the window, or null
+   * when the receiver is not playing the current track of the window
+   */
+  @Nullable static Plan plan(List<RemoteItem> remote, int currentItemId, List<Track> window) {
+    int current = -1;
+    for (int i = 0; i < remote.size(); ++i) {
+      if (remote.get(i).itemId == currentItemId) {
+        current = i;
+        break;
+      }
+    }
+    if (current < 0 || window.isEmpty()
+        || remote.get(current).queueItemId != window.get(0).queueItemId()) {
+      return null;
+    }
+
+    // Keep upcoming items that are already in the right order, the receiver may be buffering them
+    int kept = 0;
+    while (current + 1 + kept < remote.size() && 1 + kept < window.size()
+        && remote.get(current + 1 + kept).queueItemId == window.get(1 + kept).queueItemId()) {
+      ++kept;
+    }
+
+    List<Integer> remove = new ArrayList<>();
+    for (int i = 0; i < remote.size(); ++i) {
+      if (i < current || i > current + kept) { // Played or out of date
+        remove.add(remote.get(i).itemId);
+      }
+    }
+    return new Plan(remove, new ArrayList<>(window.subList(1 + kept, window.size())));
+  }
+
+  /** An item in the receiver's queue, mapped back to its queue item. */
+  static final class RemoteItem {
+    final int itemId;
+    final long queueItemId;
+
+    RemoteItem(int itemId, long queueItemId) {
+      this.itemId = itemId;
+      this.queueItemId = queueItemId;
+    }
+  }
+
+  static final class Plan {
+    /** Receiver item ids to remove. */
+    final List<Integer> remove;
+    /** Tracks to append to the receiver's queue. */
+    final List<Track> insert;
+
+    Plan(List<Integer> remove, List<Track> insert) {
+      this.remove = remove;
+      this.insert = insert;
+    }
+
+    boolean isEmpty() {
+      return remove.isEmpty() && insert.isEmpty();
+    }
+  }
+}
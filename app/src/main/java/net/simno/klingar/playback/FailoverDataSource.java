@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import net.simno.klingar.data.ServerConnections;
+import net.simno.klingar.util.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.HttpUrl;
+import timber.log.Timber;
+
+/**
+ * An HTTP data source that survives a dropped connection. When reading fails it reopens the stream
+ * with a range request from the current offset, first on the same connection and then on the other
+ * connections of the server, so the track continues instead of failing.
+ */
+class FailoverDataSource implements DataSource {
+
+  private static final int MAX_RESUMES = 3;
+  private static final int HTTP_CLIENT_ERROR = 400;
+  private static final int HTTP_SERVER_ERROR = 500;
+
+  private final List<TransferListener> transferListeners = new ArrayList<>();
+  private final HttpDataSource.Factory httpDataSourceFactory;
+  private final ServerConnections serverConnections;
+  private final Metrics metrics;
+  private HttpDataSource upstream;
+  private DataSpec dataSpec;
+  private Uri currentUri;
+  private long bytesRead;
+
+  FailoverDataSource(HttpDataSource.Factory httpDataSourceFactory,
+                     ServerConnections serverConnections, Metrics metrics) {
+    this.httpDataSourceFactory = httpDataSourceFactory;
+    this.serverConnections = serverConnections;
+    this.metrics = metrics;
+  }
+
+  private static boolean isRecoverable(IOException e) {
+    if (e instanceof HttpDataSource.InvalidResponseCodeException) {
+      int code = ((HttpDataSource.InvalidResponseCodeException) e).responseCode;
+      // The other connections lead to the same server, so they would answer the same
+      return code < HTTP_CLIENT_ERROR || code >= HTTP_SERVER_ERROR;
+    }
+    return true;
+  }
+
+  @Override public void addTransferListener(TransferListener transferListener) {
+    transferListeners.add(transferListener);
+  }
+
+  @Override public long open(DataSpec dataSpec) throws IOException {
+    this.dataSpec = dataSpec;
+    this.currentUri = dataSpec.uri;
+    this.bytesRead = 0;
+    return openWithFailover(dataSpec);
+  }
+
+  @Override public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    int resumes = 0;
+    while (true) {
+      try {
+        int read = upstream.read(buffer, offset, readLength);
+        if (read != C.RESULT_END_OF_INPUT) {
+          bytesRead += read;
+        }
+        return read;
+      } catch (IOException e) {
+        if (resumes >= MAX_RESUMES || !isRecoverable(e)) {
+          throw e;
+        }
+        resumes++;
+        Timber.w("Resuming %s at %d after %s", currentUri, bytesRead, e.getMessage());
+        closeQuietly(this);
+        metrics.increment("failover.resumes");
+        openWithFailover(dataSpec.subrange(bytesRead));
+      }
+    }
+  }
+
+  @Nullable @Override public Uri getUri() {
+    return upstream != null ? upstream.getUri() : null;
+  }
+
+  @Override public Map<String, List<String>> getResponseHeaders() {
+    return upstream != null ? upstream.getResponseHeaders() : Collections.emptyMap();
+  }
+
+  @Override public void close() throws IOException {
+    try {
+      if (upstream != null) {
+        upstream.close();
+      }
+    } finally {
+      upstream = null;
+    }
+  }
+
+  /** Tries the current connection first and then the other connections of the server. */
+  private long openWithFailover(DataSpec spec) throws IOException {
+    IOException lastException = null;
+    for (Uri uri : candidates()) {
+      HttpDataSource dataSource = httpDataSourceFactory.createDataSource();
+      for (TransferListener transferListener : transferListeners) {
+        dataSource.addTransferListener(transferListener);
+      }
+      try {
+        long length = dataSource.open(spec.withUri(uri));
+        if (!uri.equals(currentUri)) {
+          Timber.w("Failed over from %s to %s", currentUri.getHost(), uri.getHost());
+          metrics.increment("failover.switches");
+        }
+        if (spec.absoluteStreamPosition > 0 && !hasContentRange(dataSource)) {
+          // The range was ignored, the data source skips up to the position
+          metrics.add("failover.refetched_bytes", spec.absoluteStreamPosition);
+        }
+        upstream = dataSource;
+        currentUri = uri;
+        return length;
+      } catch (IOException e) {
+        lastException = e;
+        closeQuietly(dataSource);
+        if (!isRecoverable(e)) {
+          break;
+        }
+      }
+    }
+    throw lastException != null ? lastException : new IOException("No connection to " + spec.uri);
+  }
+
+  private List<Uri> candidates() {
+    Set<Uri> candidates = new LinkedHashSet<>();
+    candidates.add(currentUri);
+    candidates.add(dataSpec.uri);
+    HttpUrl url = HttpUrl.parse(dataSpec.uri.toString());
+    if (url != null) {
+      for (HttpUrl alternate : serverConnections.alternates(url)) {
+        candidates.add(Uri.parse(alternate.toString()));
+      }
+    }
+    return new ArrayList<>(candidates);
+  }
+
+  private static boolean hasContentRange(DataSource dataSource) {
+    for (String header : dataSource.getResponseHeaders().keySet()) {
+      if ("Content-Range".equalsIgnoreCase(header)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void closeQuietly(DataSource dataSource) {
+    try {
+      dataSource.close();
+    } catch (IOException e) {
+      Timber.d("Closing failed connection %s", e.getMessage());
+    }
+  }
+
+  static class Factory implements DataSource.Factory {
+
+    private final HttpDataSource.Factory httpDataSourceFactory;
+    private final ServerConnections serverConnections;
+    private final Metrics metrics;
+
+    Factory(HttpDataSource.Factory httpDataSourceFactory, ServerConnections serverConnections,
+            Metrics metrics) {
+      this.httpDataSourceFactory = httpDataSourceFactory;
+      this.serverConnections = serverConnections;
+      this.metrics = metrics;
+    }
+
+    @Override public DataSource createDataSource() {
+      return new FailoverDataSource(httpDataSourceFactory, serverConnections, metrics);
+    }
+  }
+}
@@ -23,27 +23,26 @@ import android.content.IntentFilter;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v4.media.session.PlaybackStateCompat.State;
 
+import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayerFactory;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
 import com.google.android.exoplayer2.audio.AudioAttributes;
-import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
-import com.google.android.exoplayer2.source.ProgressiveMediaSource;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
-import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import com.google.android.exoplayer2.util.Util;
 
-import net.simno.klingar.R;
 import net.simno.klingar.data.model.Track;
+import net.simno.klingar.util.Metrics;
 
-import okhttp3.Call;
 import timber.log.Timber;
 
 import static android.media.AudioManager.ACTION_AUDIO_BECOMING_NOISY;
@@ -53,7 +52,8 @@ import static com.google.android.exoplayer2.C.USAGE_MEDIA;
 
 /**
  * A class that implements local media playback using
- * {@link com.google.android.exoplayer2.ExoPlayer}
+ * {@link com.google.android.exoplayer2.ExoPlayer}. Must be created and used on the
+ * {@link PlaybackThread}, player events and audio focus changes are delivered there.
  */
 class LocalPlayback implements Playback, Player.EventListener,
     AudioManager.OnAudioFocusChangeListener {
@@ -63,14 +63,28 @@ class LocalPlayback implements Playback, Player.EventListener,
   private static final int AUDIO_NO_FOCUS_NO_DUCK = 0;
   private static final int AUDIO_NO_FOCUS_CAN_DUCK = 1;
   private static final int AUDIO_FOCUSED = 2;
+  private static final AudioAttributes AUDIO_ATTRIBUTES = new AudioAttributes.Builder()
+      .setContentType(CONTENT_TYPE_MUSIC)
+      .setUsage(USAGE_MEDIA)
+      .build();
 
   private final IntentFilter audioNoisyIntentFilter = new IntentFilter(ACTION_AUDIO_BECOMING_NOISY);
   private final Context context;
+  private final Handler handler;
   private final WifiManager.WifiLock wifiLock;
   private final AudioManager audioManager;
   private final MusicController musicController;
-  private final ProgressiveMediaSource.Factory mediaSourceFactory;
+  private final AudioSources audioSources;
+  private final StartupTimer startupTimer;
+  private final Metrics metrics;
   private SimpleExoPlayer exoPlayer;
+  private ProfileLoadControl loadControl;
+  private BufferProfile bufferProfile;
+  private int lastPlaybackState = Player.STATE_IDLE;
+  // Whether a track has been prepared since the player was created
+  private boolean prepared;
+  // Whether the player is buffering because of a seek, which is not a rebuffer
+  private boolean seeking;
   private Callback callback;
   private int audioFocus = AUDIO_NO_FOCUS_NO_DUCK;
   private boolean playOnFocusGain;
@@ -78,6 +92,17 @@ class LocalPlayback implements Playback, Player.EventListener,
   private Track currentTrack;
   // Whether to return STATE_NONE or STATE_STOPPED when exoPlayer is null;
   private boolean exoPlayerNullIsStopped;
+  // Called when a prepared track has buffered enough to play
+  private Runnable onReady;
+  private Runnable onError;
+
+  private final AnalyticsListener startupAnalyticsListener = new AnalyticsListener() {
+    @Override public void onDecoderInitialized(EventTime eventTime, int trackType,
+                                               String decoderName,
+                                               long initializationDurationMs) {
+      startupTimer.mark(StartupTimer.DECODER);
+    }
+  };
 
   private final BroadcastReceiver audioNoisyReceiver = new BroadcastReceiver() {
     @Override public void onReceive(Context context, Intent intent) {
@@ -90,14 +115,16 @@ class LocalPlayback implements Playback, Player.EventListener,
   };
 
   LocalPlayback(Context context, MusicController musicController, AudioManager audioManager,
-                WifiManager wifiManager, Call.Factory callFactory) {
+                WifiManager wifiManager, AudioSources audioSources, StartupTimer startupTimer,
+                Metrics metrics) {
     this.context = context;
+    this.handler = new Handler(Looper.myLooper());
     this.musicController = musicController;
+    this.audioSources = audioSources;
+    this.startupTimer = startupTimer;
+    this.metrics = metrics;
     this.audioManager = audioManager;
     this.wifiLock = wifiManager.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, "klingar");
-    String agent = Util.getUserAgent(context, context.getResources().getString(R.string.app_name));
-    this.mediaSourceFactory = new ProgressiveMediaSource.Factory(new DefaultDataSourceFactory(
-        context, null, new OkHttpDataSourceFactory(callFactory, agent)));
   }
 
   private static String getExoPlayerState(int state) {
@@ -115,17 +142,23 @@ class LocalPlayback implements Playback, Player.EventListener,
     }
   }
 
+  /** Creates the player and its renderers ahead of the first play request. */
   @Override public void start() {
+    if (exoPlayer == null) {
+      createPlayer(selectProfile());
+    }
   }
 
   @Override public void stop(boolean notifyListeners) {
+    onReady = null;
+    onError = null;
     giveUpAudioFocus();
     unregisterAudioNoisyReceiver();
     releaseResources(true);
   }
 
   @Override @State public int getState() {
-    if (exoPlayer == null) {
+    if (exoPlayer == null || !prepared) {
       return exoPlayerNullIsStopped ? PlaybackStateCompat.STATE_STOPPED
           : PlaybackStateCompat.STATE_NONE;
     }
@@ -170,28 +203,62 @@ class LocalPlayback implements Playback, Player.EventListener,
     }
 
     if (mediaHasChanged || exoPlayer == null) {
-      releaseResources(false); // release everything except the player
+      load(track);
+    }
 
-      if (exoPlayer == null) {
-        exoPlayer = ExoPlayerFactory.newSimpleInstance(context, new DefaultTrackSelector());
-        exoPlayer.addListener(this);
-      }
-      AudioAttributes audioAttributes = new AudioAttributes.Builder()
-          .setContentType(CONTENT_TYPE_MUSIC)
-          .setUsage(USAGE_MEDIA)
-          .build();
-      exoPlayer.setAudioAttributes(audioAttributes);
-
-      Uri uri = Uri.parse(track.source());
-      ProgressiveMediaSource source = mediaSourceFactory.createMediaSource(uri);
-      exoPlayer.prepare(source);
-
-      // If we are streaming from the internet, we want to hold a Wifi lock, which prevents the
-      // Wifi radio from going to sleep while the song is playing.
+    configurePlayerState();
+  }
+
+  @Override public void prepare(Track track, int position, Runnable onReady, Runnable onError) {
+    Timber.d("prepare %s %s", track, position);
+    currentTrack = track;
+    load(track);
+    exoPlayer.setPlayWhenReady(false);
+    seeking = true;
+    exoPlayer.seekTo(position);
+    this.onReady = onReady;
+    this.onError = onError;
+  }
+
+  private void load(Track track) {
+    releaseResources(false); // release everything except the player
+
+    // The profile is picked for every track, the player may have been warmed up before there was
+    // a bandwidth estimate
+    bufferProfile = selectProfile();
+    if (exoPlayer == null) {
+      createPlayer(bufferProfile);
+    } else {
+      loadControl.setProfile(bufferProfile);
+    }
+    metrics.increment("buffer." + bufferProfile.key + ".tracks");
+
+    Uri uri = audioSources.uri(track);
+    exoPlayer.prepare(audioSources.createMediaSource(uri));
+    prepared = true;
+
+    // If we are streaming from the internet, we want to hold a Wifi lock, which prevents the
+    // Wifi radio from going to sleep while the song is playing.
+    if (!AudioSources.isLocal(uri)) {
       wifiLock.acquire();
     }
+  }
 
-    configurePlayerState();
+  private void notifyReady() {
+    if (onReady != null) {
+      // Posted so the handover does not run inside the player listener
+      handler.post(onReady);
+    }
+    onReady = null;
+    onError = null;
+  }
+
+  private void notifyError() {
+    if (onError != null) {
+      handler.post(onError);
+    }
+    onReady = null;
+    onError = null;
   }
 
   @Override public void pause() {
@@ -208,10 +275,11 @@ class LocalPlayback implements Playback, Player.EventListener,
 
   @Override public void seekTo(int position) {
     Timber.d("seekTo %s", position);
-    if (exoPlayer != null) {
+    if (exoPlayer != null && prepared) {
       registerAudioNoisyReceiver();
       long duration = exoPlayer.getDuration();
       long seekPosition = duration == TIME_UNSET ? 0 : Math.min(Math.max(0, position), duration);
+      seeking = true;
       exoPlayer.seekTo(seekPosition);
     }
   }
@@ -232,6 +300,19 @@ class LocalPlayback implements Playback, Player.EventListener,
     Timber.d("onPlayerStateChanged %s playWhenReady %s", getExoPlayerState(playbackState),
         playWhenReady);
 
+    if (playbackState == Player.STATE_READY && playWhenReady) {
+      startupTimer.mark(StartupTimer.AUDIBLE);
+    } else if (playbackState == Player.STATE_BUFFERING && lastPlaybackState == Player.STATE_READY
+        && playWhenReady && !seeking) {
+      // Ran out of buffered audio while playing
+      metrics.increment("buffer." + bufferProfile.key + ".rebuffers");
+    }
+    lastPlaybackState = playbackState;
+    if (playbackState == Player.STATE_READY) {
+      seeking = false;
+      notifyReady();
+    }
+
     switch (playbackState) {
       case Player.STATE_IDLE:
       case Player.STATE_BUFFERING:
@@ -262,6 +343,7 @@ class LocalPlayback implements Playback, Player.EventListener,
 
   @Override public void onPlayerError(ExoPlaybackException error) {
     Timber.e(error, "Exception playing song");
+    notifyError();
     if (callback != null) {
       callback.onPlaybackStatusChanged();
     }
@@ -270,6 +352,31 @@ class LocalPlayback implements Playback, Player.EventListener,
   @Override public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
   }
 
+  private BufferProfile selectProfile() {
+    return BufferProfile.select(context, audioSources.bandwidthEstimate());
+  }
+
+  private void createPlayer(BufferProfile profile) {
+    Timber.d("createPlayer %s", profile);
+    bufferProfile = profile;
+    loadControl = new ProfileLoadControl(profile);
+    exoPlayer = ExoPlayerFactory.newSimpleInstance(context, new DefaultRenderersFactory(context),
+        new DefaultTrackSelector(), loadControl, null, handler.getLooper());
+    exoPlayer.addListener(this);
+    exoPlayer.addAnalyticsListener(startupAnalyticsListener);
+    exoPlayer.setAudioAttributes(AUDIO_ATTRIBUTES);
+    prepared = false;
+    lastPlaybackState = Player.STATE_IDLE;
+  }
+
+  private void releasePlayer() {
+    exoPlayer.release();
+    exoPlayer.removeListener(this);
+    exoPlayer.removeAnalyticsListener(startupAnalyticsListener);
+    exoPlayer = null;
+    prepared = false;
+  }
+
   private void tryToGetAudioFocus() {
     Timber.d("tryToGetAudioFocus");
     int result = audioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC,
@@ -313,6 +420,11 @@ class LocalPlayback implements Playback, Player.EventListener,
   }
 
   @Override public void onAudioFocusChange(int focusChange) {
+    // Focus changes are delivered on the main thread
+    handler.post(() -> handleAudioFocusChange(focusChange));
+  }
+
+  private void handleAudioFocusChange(int focusChange) {
     Timber.d("onAudioFocusChange focusChange %s", focusChange);
 
     switch (focusChange) {
@@ -353,9 +465,7 @@ class LocalPlayback implements Playback, Player.EventListener,
     Timber.d("releaseResources releasePlayer %s", releasePlayer);
     // stop and release the ExoPlayer, if it's available
     if (releasePlayer && exoPlayer != null) {
-      exoPlayer.release();
-      exoPlayer.removeListener(this);
-      exoPlayer = null;
+      releasePlayer();
       exoPlayerNullIsStopped = true;
       playOnFocusGain = false;
     }
@@ -367,7 +477,7 @@ class LocalPlayback implements Playback, Player.EventListener,
 
   private void registerAudioNoisyReceiver() {
     if (!audioNoisyReceiverRegistered) {
-      context.registerReceiver(audioNoisyReceiver, audioNoisyIntentFilter);
+      context.registerReceiver(audioNoisyReceiver, audioNoisyIntentFilter, null, handler);
       audioNoisyReceiverRegistered = true;
     }
   }
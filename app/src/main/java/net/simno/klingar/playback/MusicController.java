@@ -24,11 +24,16 @@ import androidx.annotation.Nullable;
 
 import com.jakewharton.rxrelay2.BehaviorRelay;
 
+import net.simno.klingar.AndroidClock;
 import net.simno.klingar.util.Rx;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
-import io.reactivex.disposables.Disposable;
+import io.reactivex.Scheduler;
 import timber.log.Timber;
 
 import static android.support.v4.media.session.PlaybackStateCompat.STATE_BUFFERING;
@@ -48,13 +53,16 @@ import static net.simno.klingar.playback.PlaybackManager.CUSTOM_ACTION_SHUFFLE;
 
 public class MusicController {
 
-  private final BehaviorRelay<Long> progressRelay = BehaviorRelay.createDefault(0L);
+  /** Tick rate of {@link #progress()}, fast enough for a seek bar showing seconds. */
+  public static final long PROGRESS_INTERVAL_MS = 1000;
+
+  private final BehaviorRelay<PlaybackStateCompat> playbackStateRelay = BehaviorRelay.create();
   private final BehaviorRelay<Integer> stateRelay = BehaviorRelay.createDefault(STATE_NONE);
-  private final Flowable<Long> seconds;
-  private final Rx rx;
+  private final Map<Long, Flowable<Long>> clocks = new HashMap<>();
+  private final AndroidClock androidClock;
+  private final Scheduler scheduler;
   private MediaControllerCompat mediaController;
   private PlaybackStateCompat playbackState;
-  private Disposable progressDisposable;
   private String castName;
 
   private final MediaControllerCompat.Callback callback = new MediaControllerCompat.Callback() {
@@ -66,17 +74,21 @@ public class MusicController {
 
       if (newState != currentState) {
         stateRelay.accept(newState);
-        handleProgress(newState, newPlaybackState.getPosition());
       }
       playbackState = newPlaybackState;
+      playbackStateRelay.accept(newPlaybackState);
 
       Timber.d("onPlaybackStateChanged %s", getStateString(newState));
     }
   };
 
-  public MusicController(Flowable<Long> seconds, Rx rx) {
-    this.seconds = seconds;
-    this.rx = rx;
+  public MusicController(Rx rx) {
+    this(AndroidClock.DEFAULT, rx.playback());
+  }
+
+  MusicController(AndroidClock androidClock, Scheduler scheduler) {
+    this.androidClock = androidClock;
+    this.scheduler = scheduler;
   }
 
   private static String getStateString(@State int state) {
@@ -139,7 +151,25 @@ public class MusicController {
   }
 
   public Flowable<Long> progress() {
-    return progressRelay.toFlowable(BackpressureStrategy.LATEST);
+    return progress(PROGRESS_INTERVAL_MS);
+  }
+
+  /**
+   * Playback position derived from the last playback state, emitted on every state change and on
+   * each multiple of {@code intervalMs} while playing. Subscribers with the same interval share one
+   * clock, which stops ticking when nobody observes it.
+   */
+  public synchronized Flowable<Long> progress(long intervalMs) {
+    Flowable<Long> clock = clocks.get(intervalMs);
+    if (clock == null) {
+      clock = playbackStateRelay.toFlowable(BackpressureStrategy.LATEST)
+          .switchMap(state -> ticks(state, intervalMs))
+          .onBackpressureLatest()
+          .replay(1)
+          .refCount();
+      clocks.put(intervalMs, clock);
+    }
+    return clock;
   }
 
   public Flowable<Integer> state() {
@@ -225,23 +255,22 @@ public class MusicController {
     }
   }
 
-  private void handleProgress(@State final int state, final long startPosition) {
-    if (state == STATE_PLAYING) {
-      stopProgress();
-      startProgress(startPosition);
-    } else {
-      stopProgress();
+  private Flowable<Long> ticks(PlaybackStateCompat state, long intervalMs) {
+    float speed = state.getPlaybackSpeed();
+    if (state.getState() != STATE_PLAYING || speed <= 0) {
+      return Flowable.just(state.getPosition());
     }
+    long position = position(state);
+    // Tick when the position reaches the next multiple of the interval
+    long delay = (long) ((intervalMs - position % intervalMs) / speed);
+    long period = Math.max(1, (long) (intervalMs / speed));
+    return Flowable.interval(delay, period, TimeUnit.MILLISECONDS, scheduler)
+        .map(tick -> Math.round(position(state) / (double) intervalMs) * intervalMs)
+        .startWith(position);
   }
 
-  private void startProgress(final long startPosition) {
-    progressRelay.accept(startPosition);
-    progressDisposable = seconds.map(count -> ((count + 1) * 1000) + startPosition)
-        .subscribeOn(rx.newThread())
-        .subscribe(progressRelay, Rx::onError);
-  }
-
-  private void stopProgress() {
-    Rx.dispose(progressDisposable);
+  private long position(PlaybackStateCompat state) {
+    long elapsed = androidClock.elapsedRealTime() - state.getLastPositionUpdateTime();
+    return state.getPosition() + (long) (elapsed * state.getPlaybackSpeed());
   }
 }
@@ -21,10 +21,15 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.media.AudioManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.net.wifi.WifiManager;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
 import android.support.v4.media.session.MediaControllerCompat;
@@ -37,6 +42,8 @@ import androidx.core.content.ContextCompat;
 import androidx.media.session.MediaButtonReceiver;
 import androidx.mediarouter.media.MediaRouter;
 
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.google.android.gms.cast.framework.CastContext;
 import com.google.android.gms.cast.framework.CastSession;
 import com.google.android.gms.cast.framework.SessionManager;
@@ -45,16 +52,24 @@ import com.google.android.gms.cast.framework.SessionManagerListener;
 import net.simno.klingar.AndroidClock;
 import net.simno.klingar.KlingarApp;
 import net.simno.klingar.MediaNotificationManager;
+import net.simno.klingar.data.ConnectionWarmer;
+import net.simno.klingar.data.Prefs;
+import net.simno.klingar.data.ServerMonitor;
 import net.simno.klingar.data.api.MediaService;
+import net.simno.klingar.data.model.Track;
 import net.simno.klingar.ui.KlingarActivity;
+import net.simno.klingar.util.Metrics;
 import net.simno.klingar.util.Rx;
 
 import java.lang.ref.WeakReference;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
-import okhttp3.OkHttpClient;
+import io.reactivex.disposables.Disposable;
+import okhttp3.HttpUrl;
 import timber.log.Timber;
 
 import static android.app.PendingIntent.FLAG_UPDATE_CURRENT;
@@ -64,15 +79,26 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
   public static final String ACTION_STOP_CASTING = "net.simno.klingar.ACTION_STOP_CASTING";
 
   private static final int STOP_DELAY = 30000;
+  private static final int PRECACHE_TRACKS = 2;
+  private static final long PRECACHE_BYTES = 1024 * 1024;
   private final IBinder binder = new LocalBinder();
-  private final DelayedStopHandler delayedStopHandler = new DelayedStopHandler(this);
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
   @Inject QueueManager queueManager;
   @Inject MusicController musicController;
   @Inject AudioManager audioManager;
   @Inject WifiManager wifiManager;
   @Inject MediaService media;
   @Inject Rx rx;
-  @Inject @Named("default") OkHttpClient client;
+  @Inject @Named("prefetch") HttpDataSource.Factory prefetchDataSourceFactory;
+  @Inject Cache cache;
+  @Inject AudioSources audioSources;
+  @Inject Metrics metrics;
+  @Inject StartupTimer startupTimer;
+  @Inject ConnectionWarmer connectionWarmer;
+  @Inject ServerMonitor serverMonitor;
+  @Inject Prefs prefs;
+  private PlaybackThread playbackThread;
+  private DelayedStopHandler delayedStopHandler;
   private PlaybackManager playbackManager;
   private MediaSessionCompat session;
   private MediaNotificationManager mediaNotificationManager;
@@ -80,6 +106,11 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
   private SessionManager castSessionManager;
   private SessionManagerListener<CastSession> castSessionManagerListener;
   private TimelineManager timelineManager;
+  private ConnectivityManager connectivityManager;
+  private ConnectivityManager.NetworkCallback networkCallback;
+  private Precacher precacher;
+  private Disposable preconnectDisposable;
+  private Disposable monitorDisposable;
 
   @Nullable @Override public IBinder onBind(Intent intent) {
     return binder;
@@ -90,9 +121,8 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
     Timber.d("onCreate");
     KlingarApp.get(this).component().inject(this);
 
-    Playback playback = new LocalPlayback(getApplicationContext(), musicController, audioManager,
-        wifiManager, client);
-    playbackManager = new PlaybackManager(queueManager, this, AndroidClock.DEFAULT, playback);
+    playbackThread = new PlaybackThread(metrics);
+    delayedStopHandler = new DelayedStopHandler(this, playbackThread.handler().getLooper());
 
     session = new MediaSessionCompat(this, "MusicService");
 
@@ -105,13 +135,20 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
       throw new IllegalStateException();
     }
 
-    session.setCallback(playbackManager.getMediaSessionCallback());
-
     Context context = getApplicationContext();
     Intent intent = new Intent(context, KlingarActivity.class);
     session.setSessionActivity(PendingIntent.getActivity(context, 99, intent, FLAG_UPDATE_CURRENT));
 
-    playbackManager.updatePlaybackState();
+    // The playback manager and everything it calls are confined to the playback thread
+    playbackThread.post(() -> {
+      Playback playback = createLocalPlayback();
+      playbackManager = new PlaybackManager(queueManager, this, AndroidClock.DEFAULT, metrics,
+          playback);
+      // Warm start, so that the first play request does not have to create the player
+      playback.start();
+      session.setCallback(playbackManager.getMediaSessionCallback(), playbackThread.handler());
+      playbackManager.updatePlaybackState();
+    });
 
     mediaNotificationManager = new MediaNotificationManager(this, musicController,
         queueManager, rx);
@@ -122,8 +159,44 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
 
     mediaRouter = MediaRouter.getInstance(getApplicationContext());
 
-    timelineManager = new TimelineManager(musicController, queueManager, media, rx);
+    timelineManager = new TimelineManager(musicController, queueManager, media, prefs, rx,
+        rx.background());
     timelineManager.start();
+
+    // Send buffered timeline reports as soon as the network is back
+    connectivityManager =
+        (ConnectivityManager) getApplicationContext().getSystemService(CONNECTIVITY_SERVICE);
+    networkCallback = new ConnectivityManager.NetworkCallback() {
+      @Override public void onAvailable(@NonNull Network network) {
+        timelineManager.flush();
+      }
+    };
+    connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+        .build(), networkCallback);
+
+    precacher = new Precacher(getApplicationContext(), queueManager, cache,
+        prefetchDataSourceFactory, AndroidClock.DEFAULT, PRECACHE_TRACKS, PRECACHE_BYTES);
+    precacher.start();
+
+    // Warm the servers of the current and the next track
+    preconnectDisposable = queueManager.queue()
+        .map(pair -> {
+          Set<HttpUrl> servers = new LinkedHashSet<>();
+          for (Track track : Precacher.window(pair.first, pair.second - 1, 2)) {
+            servers.add(track.uri());
+          }
+          return servers;
+        })
+        .distinctUntilChanged()
+        .flatMapIterable(servers -> servers)
+        .subscribe(connectionWarmer::warm, Rx::onError);
+
+    // Keep monitoring the servers in the background while playing
+    monitorDisposable = musicController.state()
+        .map(state -> state == PlaybackStateCompat.STATE_PLAYING)
+        .distinctUntilChanged()
+        .subscribe(serverMonitor::setPlaying, Rx::onError);
   }
 
   @Override public int onStartCommand(Intent startIntent, int flags, int startId) {
@@ -131,8 +204,10 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
       if (ACTION_STOP_CASTING.equals(startIntent.getAction())) {
         CastContext.getSharedInstance(this).getSessionManager().endCurrentSession(true);
       } else {
-        // Try to handle the intent as a media button event wrapped by MediaButtonReceiver
-        MediaButtonReceiver.handleIntent(session, startIntent);
+        // Try to handle the intent as a media button event wrapped by MediaButtonReceiver. Posted
+        // after the message that sets the session callback, which would otherwise drop the event
+        // when the service was started by the button.
+        playbackThread.post(() -> MediaButtonReceiver.handleIntent(session, startIntent));
       }
     }
     // Reset the delay handler to enqueue a message to stop the service if nothing is playing
@@ -144,7 +219,13 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
   @Override public void onDestroy() {
     Timber.d("onDestroy");
     // Service is being killed, so make sure we release our resources
-    playbackManager.handleStopRequest();
+    playbackThread.post(() -> {
+      playbackManager.handleStopRequest();
+      delayedStopHandler.removeCallbacksAndMessages(null);
+      session.release();
+    });
+    playbackThread.quit();
+    mainHandler.removeCallbacksAndMessages(null);
     mediaNotificationManager.stopNotification();
 
     if (castSessionManager != null) {
@@ -152,10 +233,12 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
           CastSession.class);
     }
 
+    connectivityManager.unregisterNetworkCallback(networkCallback);
     timelineManager.stop();
-
-    delayedStopHandler.removeCallbacksAndMessages(null);
-    session.release();
+    precacher.stop();
+    Rx.dispose(preconnectDisposable);
+    Rx.dispose(monitorDisposable);
+    serverMonitor.setPlaying(false);
   }
 
   @Override public void onPlaybackStart() {
@@ -180,7 +263,12 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
   }
 
   @Override public void onNotificationRequired() {
-    mediaNotificationManager.startNotification();
+    mainHandler.post(mediaNotificationManager::startNotification);
+  }
+
+  private Playback createLocalPlayback() {
+    return new LocalPlayback(getApplicationContext(), musicController, audioManager, wifiManager,
+        audioSources, startupTimer, metrics);
   }
 
   @Override public void onPlaybackStateUpdated(PlaybackStateCompat newState) {
@@ -193,7 +281,8 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
   private static class DelayedStopHandler extends Handler {
     private final WeakReference<MusicService> weakReference;
 
-    private DelayedStopHandler(MusicService service) {
+    private DelayedStopHandler(MusicService service, Looper looper) {
+      super(looper);
       weakReference = new WeakReference<>(service);
     }
 
@@ -218,10 +307,18 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
     @Override public void onSessionEnded(CastSession castSession, int error) {
       Timber.d("onSessionEnded");
       musicController.setCastName(null);
-      Playback playback = new LocalPlayback(getApplicationContext(), musicController, audioManager,
-          wifiManager, client);
       mediaRouter.setMediaSessionCompat(null);
-      playbackManager.switchToPlayback(playback, false);
+      playbackThread.post(() -> {
+        if (playbackManager.getPlayback() instanceof CastPlayback) {
+          // The receiver is gone, take over even if the local player is still buffering
+          if (!playbackManager.finishHandover()) {
+            playbackManager.switchToPlayback(createLocalPlayback(), false);
+          }
+        } else {
+          // Was still handing over to the session that ended
+          playbackManager.abortHandover();
+        }
+      });
     }
 
     @Override public void onSessionResumed(CastSession session, boolean wasSuspended) {
@@ -230,9 +327,10 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
     @Override public void onSessionStarted(CastSession castSession, String sessionId) {
       Timber.d("onSessionStarted %s", sessionId);
       musicController.setCastName(castSession.getCastDevice().getFriendlyName());
-      Playback playback = new CastPlayback(MusicService.this);
+      Playback playback = new CastPlayback(MusicService.this, playbackThread.handler(),
+          queueManager);
       mediaRouter.setMediaSessionCompat(session);
-      playbackManager.switchToPlayback(playback, true);
+      playbackThread.post(() -> playbackManager.handoverToPlayback(playback));
     }
 
     @Override public void onSessionStarting(CastSession session) {
@@ -246,7 +344,14 @@ public class MusicService extends Service implements PlaybackManager.PlaybackSer
       // In onSessionEnded(), the underlying CastPlayback#mRemoteMediaClient
       // is disconnected and hence we update our local value of stream position
       // to the latest position.
-      playbackManager.getPlayback().updateLastKnownStreamPosition();
+      playbackThread.post(() -> {
+        Playback current = playbackManager.getPlayback();
+        current.updateLastKnownStreamPosition();
+        if (current instanceof CastPlayback) {
+          // Start buffering locally while the receiver is still playing
+          playbackManager.handoverToPlayback(createLocalPlayback());
+        }
+      });
     }
 
     @Override public void onSessionResuming(CastSession session, String sessionId) {
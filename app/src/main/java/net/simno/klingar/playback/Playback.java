@@ -72,6 +72,16 @@ interface Playback {
    */
   void play(Track track);
 
+  /**
+   * Load the track at the position without playing it, so that a following {@link #play(Track)}
+   * of the same track starts without buffering. Used to hand over from another playback.
+   *
+   * @param onReady called on the playback thread when the track can be played
+   * @param onError called on the playback thread instead of onReady when loading failed, so that
+   *                the handover does not wait forever or switch to a playback that cannot play
+   */
+  void prepare(Track track, int position, Runnable onReady, Runnable onError);
+
   /**
    * Pause the current playing track
    */
@@ -28,6 +28,7 @@ import net.simno.klingar.R;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.playback.QueueManager.RepeatMode;
 import net.simno.klingar.playback.QueueManager.ShuffleMode;
+import net.simno.klingar.util.Metrics;
 
 import timber.log.Timber;
 
@@ -53,15 +54,21 @@ class PlaybackManager implements Playback.Callback {
   private final MediaSessionCallback sessionCallback;
   private final PlaybackServiceCallback serviceCallback;
   private final AndroidClock androidClock;
+  private final Metrics metrics;
   private Playback playback;
+  // Playback that is loading the current track to take over from the playing one
+  private Playback handover;
+  private long handoverStartedAt;
+  private long gapStartedAt = -1;
 
   PlaybackManager(QueueManager queueManager, PlaybackServiceCallback serviceCallback,
-                  AndroidClock androidClock, Playback playback) {
+                  AndroidClock androidClock, Metrics metrics, Playback playback) {
     this.queueManager = queueManager;
     this.serviceCallback = serviceCallback;
     this.androidClock = androidClock;
+    this.metrics = metrics;
     this.playback = playback;
-    this.playback.setCallback(this);
+    this.playback.setCallback(new PlaybackCallback(playback));
     this.sessionCallback = new MediaSessionCallback();
   }
 
@@ -73,8 +80,23 @@ class PlaybackManager implements Playback.Callback {
     return sessionCallback;
   }
 
+  /**
+   * @return the current track of the queue. If the queue has been reconciled with the server while
+   * its provisional copy was playing, the playback takes over the reconciled track so that it
+   * continues instead of restarting.
+   */
+  private Track currentQueueTrack() {
+    Track track = queueManager.currentTrack();
+    Track playing = playback.getCurrentTrack();
+    if (track != null && playing != null && playing.isProvisional() && !track.isProvisional()
+        && playing.ratingKey().equals(track.ratingKey())) {
+      playback.setCurrentTrack(track);
+    }
+    return track;
+  }
+
   private void handlePlayRequest() {
-    Track currentQueueItem = queueManager.currentTrack();
+    Track currentQueueItem = currentQueueTrack();
     if (currentQueueItem != null) {
       playback.play(currentQueueItem);
       serviceCallback.onPlaybackStart();
@@ -82,6 +104,7 @@ class PlaybackManager implements Playback.Callback {
   }
 
   private void handlePauseRequest() {
+    gapStartedAt = -1;
     if (playback.isPlaying()) {
       playback.pause();
       serviceCallback.onPlaybackStop();
@@ -89,6 +112,8 @@ class PlaybackManager implements Playback.Callback {
   }
 
   void handleStopRequest() {
+    gapStartedAt = -1;
+    abortHandover();
     playback.stop(true);
     serviceCallback.onPlaybackStop();
     updatePlaybackState();
@@ -150,6 +175,7 @@ class PlaybackManager implements Playback.Callback {
 
   @Override public void onCompletion() {
     Timber.d("onCompletion");
+    finishHandover();
     if (queueManager.hasNext()) {
       queueManager.next();
       handlePlayRequest();
@@ -160,6 +186,10 @@ class PlaybackManager implements Playback.Callback {
 
   @Override public void onPlaybackStatusChanged() {
     Timber.d("onPlaybackStatusChanged");
+    if (gapStartedAt >= 0 && playback.getState() == STATE_PLAYING) {
+      metrics.record("handover.gap_ms", androidClock.elapsedRealTime() - gapStartedAt);
+      gapStartedAt = -1;
+    }
     updatePlaybackState();
   }
 
@@ -176,17 +206,80 @@ class PlaybackManager implements Playback.Callback {
   void switchToPlayback(@NonNull Playback newPlayback, boolean resumePlaying) {
     Timber.d("switchToPlayback %s resume %s", newPlayback.getClass().getSimpleName(),
         resumePlaying);
+    abortHandover();
+    gapStartedAt = -1;
+    newPlayback.start();
+    takeOver(newPlayback, resumePlaying);
+  }
+
+  /**
+   * Switch to a different Playback without a silence in between. The new playback loads the
+   * current track at the current position while the old one keeps playing, and takes over when it
+   * is ready or when the user does something else. Switches right away if nothing is playing.
+   */
+  void handoverToPlayback(@NonNull Playback newPlayback) {
+    Track track = playback.getCurrentTrack();
+    if (playback.getState() != STATE_PLAYING || track == null) {
+      switchToPlayback(newPlayback, true);
+      return;
+    }
+    Timber.d("handoverToPlayback %s", newPlayback.getClass().getSimpleName());
+    abortHandover();
+    handover = newPlayback;
+    handoverStartedAt = androidClock.elapsedRealTime();
+    newPlayback.setCallback(new PlaybackCallback(newPlayback));
+    newPlayback.start();
+    newPlayback.prepare(track, Math.max(playback.getCurrentStreamPosition(), 0), () -> {
+      if (handover == newPlayback) {
+        metrics.record("handover.prepare_ms", androidClock.elapsedRealTime() - handoverStartedAt);
+        finishHandover();
+      }
+    }, () -> {
+      if (handover == newPlayback) {
+        metrics.increment("handover.failed");
+        abortHandover();
+      }
+    });
+  }
+
+  /**
+   * Lets the playback that is loading take over now.
+   *
+   * @return false if there was no handover in progress
+   */
+  boolean finishHandover() {
+    if (handover == null) {
+      return false;
+    }
+    Playback newPlayback = handover;
+    handover = null;
+    // Only a take over that keeps playing has a gap, a paused one would count the time until play
+    boolean resumes = playback.getState() == STATE_PLAYING && queueManager.currentTrack() != null;
+    gapStartedAt = resumes ? androidClock.elapsedRealTime() : -1;
+    takeOver(newPlayback, true);
+    return true;
+  }
+
+  /** Stops the playback that is loading and keeps the current one. */
+  void abortHandover() {
+    if (handover != null) {
+      Timber.d("abortHandover");
+      handover.stop(false);
+      handover = null;
+    }
+  }
+
+  private void takeOver(@NonNull Playback newPlayback, boolean resumePlaying) {
     // Suspend the current one
     @State int oldState = playback.getState();
     int position = playback.getCurrentStreamPosition();
     Track currentMediaId = playback.getCurrentTrack();
     playback.stop(false);
-    newPlayback.setCallback(this);
-    newPlayback.setCurrentTrack(currentMediaId);
-    newPlayback.seekTo(Math.max(position, 0));
-    newPlayback.start();
-    // Finally swap the instance
+    // Swap the instance first, callbacks are only taken from the current one
     playback = newPlayback;
+    playback.setCallback(new PlaybackCallback(newPlayback));
+    playback.setCurrentTrack(currentMediaId);
+    playback.seekTo(Math.max(position, 0));
     switch (oldState) {
       case STATE_BUFFERING:
       case STATE_CONNECTING:
@@ -194,7 +287,7 @@ class PlaybackManager implements Playback.Callback {
         playback.pause();
         break;
       case STATE_PLAYING:
-        Track currentQueueItem = queueManager.currentTrack();
+        Track currentQueueItem = currentQueueTrack();
         if (resumePlaying && currentQueueItem != null) {
           playback.play(currentQueueItem);
         } else if (!resumePlaying) {
@@ -223,31 +316,66 @@ class PlaybackManager implements Playback.Callback {
     void onPlaybackStateUpdated(PlaybackStateCompat newState);
   }
 
+  /**
+   * Passes on the callbacks of one playback while it is the current one, so a playback that is
+   * loading for a handover, or that was replaced, cannot complete, change the track or the state.
+   */
+  private class PlaybackCallback implements Playback.Callback {
+    private final Playback source;
+
+    PlaybackCallback(Playback source) {
+      this.source = source;
+    }
+
+    @Override public void onCompletion() {
+      if (playback == source) {
+        PlaybackManager.this.onCompletion();
+      }
+    }
+
+    @Override public void onPlaybackStatusChanged() {
+      if (playback == source) {
+        PlaybackManager.this.onPlaybackStatusChanged();
+      }
+    }
+
+    @Override public void setCurrentTrack(Track track) {
+      if (playback == source) {
+        PlaybackManager.this.setCurrentTrack(track);
+      }
+    }
+  }
+
   private class MediaSessionCallback extends MediaSessionCompat.Callback {
     @Override public void onPlay() {
       Timber.d("onPlay");
+      finishHandover();
       handlePlayRequest();
     }
 
     @Override public void onSkipToQueueItem(long id) {
       Timber.d("onSkipToQueueItem %s", id);
+      finishHandover();
       queueManager.setQueuePosition(id);
       handlePlayRequest();
     }
 
     @Override public void onPause() {
       Timber.d("onPause");
+      finishHandover();
       handlePauseRequest();
     }
 
     @Override public void onSkipToNext() {
       Timber.d("onSkipToNext");
+      finishHandover();
       queueManager.next();
       handlePlayRequest();
     }
 
     @Override public void onSkipToPrevious() {
       Timber.d("onSkipToPrevious");
+      finishHandover();
       if (playback.getCurrentStreamPosition() > 1500) {
         playback.seekTo(0);
         return;
@@ -263,6 +391,7 @@ class PlaybackManager implements Playback.Callback {
 
     @Override public void onSeekTo(long position) {
       Timber.d("onSeekTo %s", position);
+      finishHandover();
       playback.seekTo((int) position);
     }
 
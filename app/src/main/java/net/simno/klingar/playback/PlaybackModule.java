@@ -1,32 +1,103 @@
 package net.simno.klingar.playback;
 
+import android.content.Context;
+
+import com.google.android.exoplayer2.database.ExoDatabaseProvider;
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.Util;
+
+import net.simno.klingar.AndroidClock;
+import net.simno.klingar.R;
+import net.simno.klingar.data.ServerConnections;
+import net.simno.klingar.data.download.DownloadManager;
+import net.simno.klingar.data.repository.MusicRepository;
+import net.simno.klingar.util.Metrics;
 import net.simno.klingar.util.Rx;
 
+import java.io.File;
 import java.util.Random;
-import java.util.concurrent.TimeUnit;
 
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
-import io.reactivex.Flowable;
+import okhttp3.OkHttpClient;
 
 @Module
 public class PlaybackModule {
 
-  @Provides Flowable<Long> provideSeconds() {
-    return Flowable.interval(1, TimeUnit.SECONDS);
-  }
+  private static final long AUDIO_CACHE_SIZE = 200 * 1024 * 1024;
 
   @Provides Random provideRandom() {
     return new Random();
   }
 
-  @Provides @Singleton MusicController provideMusicController(Flowable<Long> seconds, Rx rx) {
-    return new MusicController(seconds, rx);
+  @Provides @Singleton MusicController provideMusicController(Rx rx) {
+    return new MusicController(rx);
   }
 
   @Provides @Singleton QueueManager provideQueueManager(Random random) {
     return new QueueManager(random);
   }
+
+  @Provides @Singleton Cache provideAudioCache(Context context) {
+    return new SimpleCache(new File(context.getCacheDir(), "audio"),
+        new LeastRecentlyUsedCacheEvictor(AUDIO_CACHE_SIZE), new ExoDatabaseProvider(context));
+  }
+
+  @Provides @Singleton DefaultBandwidthMeter provideBandwidthMeter(Context context) {
+    return new DefaultBandwidthMeter.Builder(context).build();
+  }
+
+  @Provides @Singleton
+  HttpDataSource.Factory provideHttpDataSourceFactory(Context context,
+                                                      @Named("playback") OkHttpClient client,
+                                                      DefaultBandwidthMeter bandwidthMeter) {
+    String agent = Util.getUserAgent(context, context.getString(R.string.app_name));
+    return new OkHttpDataSourceFactory(client, agent, bandwidthMeter);
+  }
+
+  /** Precaching does not report to the bandwidth meter, its transfers are not playback. */
+  @Provides @Singleton @Named("prefetch")
+  HttpDataSource.Factory providePrefetchDataSourceFactory(Context context,
+                                                          @Named("prefetch") OkHttpClient client) {
+    String agent = Util.getUserAgent(context, context.getString(R.string.app_name));
+    return new OkHttpDataSourceFactory(client, agent);
+  }
+
+  @Provides @Singleton FailoverDataSource.Factory provideFailoverDataSourceFactory(
+      HttpDataSource.Factory httpDataSourceFactory, ServerConnections serverConnections,
+      Metrics metrics) {
+    return new FailoverDataSource.Factory(httpDataSourceFactory, serverConnections, metrics);
+  }
+
+  @Provides @Singleton
+  AudioSources provideAudioSources(Context context, FailoverDataSource.Factory failoverFactory,
+                                   Cache cache, DownloadManager downloadManager,
+                                   StreamSelector streamSelector, StartupTimer startupTimer) {
+    return new AudioSources(context, failoverFactory, cache, downloadManager, streamSelector,
+        startupTimer);
+  }
+
+  @Provides @Singleton StartupTimer provideStartupTimer(Metrics metrics) {
+    return new StartupTimer(AndroidClock.DEFAULT, metrics);
+  }
+
+  @Provides @Singleton TrackStarter provideTrackStarter(QueueManager queueManager,
+                                                        MusicController musicController,
+                                                        MusicRepository musicRepository,
+                                                        StartupTimer startupTimer, Rx rx) {
+    return new TrackStarter(queueManager, musicController, musicRepository, startupTimer, rx);
+  }
+
+  @Provides @Singleton StreamSelector provideStreamSelector(DefaultBandwidthMeter bandwidthMeter,
+                                                            Metrics metrics) {
+    return new StreamSelector(bandwidthMeter, metrics);
+  }
 }
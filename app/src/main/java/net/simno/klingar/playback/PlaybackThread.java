@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Printer;
+
+import net.simno.klingar.AndroidClock;
+import net.simno.klingar.util.Metrics;
+
+/**
+ * Looper thread for the playback control plane: media session callbacks, {@link PlaybackManager},
+ * ExoPlayer events and audio focus changes. The time spent handling each message is recorded as
+ * {@code playback.thread_ms}. It does not include the time a message waited in the queue.
+ */
+class PlaybackThread {
+
+  static final String METRIC = "playback.thread_ms";
+
+  private final HandlerThread thread;
+  private final Handler handler;
+
+  PlaybackThread(Metrics metrics) {
+    thread = new HandlerThread("playback", Process.THREAD_PRIORITY_FOREGROUND);
+    thread.start();
+    thread.getLooper().setMessageLogging(new MessageTimer(metrics, AndroidClock.DEFAULT));
+    handler = new Handler(thread.getLooper());
+  }
+
+  Handler handler() {
+    return handler;
+  }
+
+  void post(Runnable runnable) {
+    handler.post(runnable);
+  }
+
+  /** Runs the messages that are already queued, then stops the thread. */
+  void quit() {
+    thread.quitSafely();
+  }
+
+  /** Times messages from the dispatch logs that {@link Looper#loop()} prints around each one. */
+  static class MessageTimer implements Printer {
+    private final Metrics metrics;
+    private final AndroidClock androidClock;
+    private long dispatchedAt = -1;
+
+    MessageTimer(Metrics metrics, AndroidClock androidClock) {
+      this.metrics = metrics;
+      this.androidClock = androidClock;
+    }
+
+    @Override public void println(String x) {
+      if (x.startsWith(">>>>> Dispatching")) {
+        dispatchedAt = androidClock.elapsedRealTime();
+      } else if (x.startsWith("<<<<< Finished") && dispatchedAt >= 0) {
+        metrics.record(METRIC, androidClock.elapsedRealTime() - dispatchedAt);
+        dispatchedAt = -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.os.BatteryManager;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+
+import net.simno.klingar.AndroidClock;
+import net.simno.klingar.data.model.Track;
+import net.simno.klingar.util.Rx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Caches the tracks following the current one in the queue so that skipping forward can start
+ * playing from disk instead of waiting for the server. Precaching is paused on metered networks
+ * and when the battery is low.
+ */
+class Precacher {
+
+  /** Cache the whole track instead of only the first bytes. */
+  static final long WHOLE_TRACK = C.LENGTH_UNSET;
+
+  private static final long CONDITIONS_TTL = 10000;
+  private static final int LOW_BATTERY_PERCENT = 15;
+
+  private final Map<String, Disposable> jobs = new HashMap<>();
+  private final Context context;
+  private final QueueManager queueManager;
+  private final Cache cache;
+  private final DataSource.Factory upstreamFactory;
+  private final ConnectivityManager connectivityManager;
+  private final AndroidClock androidClock;
+  private final int windowSize;
+  private final long bytesPerTrack;
+  private ExecutorService executor;
+  private Scheduler scheduler;
+  private Disposable disposable;
+  private long conditionsCheckedAt = -1;
+  private boolean conditionsAllowed;
+
+  /**
+   * @param windowSize    number of upcoming tracks to precache
+   * @param bytesPerTrack number of bytes to precache from the start of each track, or
+   *                      {@link #WHOLE_TRACK}
+   */
+  Precacher(Context context, QueueManager queueManager, Cache cache,
+            DataSource.Factory upstreamFactory, AndroidClock androidClock, int windowSize,
+            long bytesPerTrack) {
+    this.context = context;
+    this.queueManager = queueManager;
+    this.cache = cache;
+    this.upstreamFactory = upstreamFactory;
+    this.connectivityManager =
+        (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    this.androidClock = androidClock;
+    this.windowSize = windowSize;
+    this.bytesPerTrack = bytesPerTrack;
+  }
+
+  static List<Track> window(List<Track> queue, int position, int size) {
+    List<Track> window = new ArrayList<>();
+    for (int i = position + 1; i < queue.size() && window.size() < size; ++i) {
+      window.add(queue.get(i));
+    }
+    return window;
+  }
+
+  void start() {
+    executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "precacher");
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+    scheduler = Schedulers.from(executor);
+    disposable = queueManager.queue()
+        .map(pair -> window(pair.first, pair.second, windowSize))
+        .distinctUntilChanged()
+        .subscribe(this::update, Rx::onError);
+  }
+
+  void stop() {
+    Rx.dispose(disposable);
+    cancelAll();
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private synchronized void update(List<Track> window) {
+    Set<String> sources = new HashSet<>();
+    for (Track track : window) {
+      sources.add(track.source());
+    }
+
+    // Cancel work for tracks that left the window
+    Iterator<Map.Entry<String, Disposable>> iterator = jobs.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Disposable> job = iterator.next();
+      if (!sources.contains(job.getKey())) {
+        job.getValue().dispose();
+        iterator.remove();
+      }
+    }
+
+    if (!isAllowed()) {
+      cancelAll();
+      return;
+    }
+
+    for (Track track : window) {
+      if (!jobs.containsKey(track.source())) {
+        jobs.put(track.source(), precache(track));
+      }
+    }
+  }
+
+  private Disposable precache(Track track) {
+    DataSpec dataSpec = new DataSpec(Uri.parse(track.source()), 0, bytesPerTrack, null);
+    return Completable.create(emitter -> {
+      AtomicBoolean canceled = new AtomicBoolean();
+      emitter.setCancellable(() -> canceled.set(true));
+      try {
+        CacheUtil.cache(dataSpec, cache, null, upstreamFactory.createDataSource(),
+            (requestLength, bytesCached, newBytesCached) -> {
+              if (!isAllowed()) {
+                canceled.set(true);
+              }
+            }, canceled);
+        emitter.onComplete();
+      } catch (IOException | InterruptedException e) {
+        emitter.tryOnError(e);
+      }
+    })
+        .subscribeOn(scheduler)
+        .subscribe(() -> Timber.d("Precached %s", track.title()), throwable -> {
+          Timber.d("Precaching %s stopped %s", track.title(), throwable.getMessage());
+          removeJob(track);
+        });
+  }
+
+  private synchronized void removeJob(Track track) {
+    // Failed or interrupted jobs are retried the next time the window changes
+    jobs.remove(track.source());
+  }
+
+  private synchronized void cancelAll() {
+    for (Disposable job : jobs.values()) {
+      job.dispose();
+    }
+    jobs.clear();
+  }
+
+  private synchronized boolean isAllowed() {
+    long now = androidClock.elapsedRealTime();
+    if (conditionsCheckedAt < 0 || now - conditionsCheckedAt > CONDITIONS_TTL) {
+      conditionsCheckedAt = now;
+      conditionsAllowed = !connectivityManager.isActiveNetworkMetered() && !isBatteryLow();
+    }
+    return conditionsAllowed;
+  }
+
+  private boolean isBatteryLow() {
+    Intent battery = context.registerReceiver(null,
+        new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    if (battery == null) {
+      return false;
+    }
+    int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+    if (status == BatteryManager.BATTERY_STATUS_CHARGING
+        || status == BatteryManager.BATTERY_STATUS_FULL) {
+      return false;
+    }
+    int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+    int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+    return level >= 0 && scale > 0 && (level * 100 / scale) <= LOW_BATTERY_PERCENT;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Buffers by a {@link BufferProfile} that can change between items, so that a player created
+ * before there was a bandwidth estimate does not keep its first profile. A new profile takes
+ * effect when the player prepares the next item. All profiles share one allocator since buffered
+ * media keeps its allocations across a switch.
+ */
+class ProfileLoadControl implements LoadControl {
+
+  private final DefaultAllocator allocator =
+      new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+  private final Map<BufferProfile, LoadControl> loadControls = new EnumMap<>(BufferProfile.class);
+  private volatile BufferProfile profile;
+  private volatile LoadControl loadControl;
+
+  ProfileLoadControl(BufferProfile profile) {
+    for (BufferProfile p : BufferProfile.values()) {
+      loadControls.put(p, p.createLoadControl(allocator));
+    }
+    this.profile = profile;
+    this.loadControl = loadControls.get(profile);
+  }
+
+  /** Called from the app before the player is prepared with a new item. */
+  void setProfile(BufferProfile profile) {
+    this.profile = profile;
+  }
+
+  // The rest is called on the ExoPlayer playback thread, a new profile is picked up on prepare
+
+  @Override public void onPrepared() {
+    loadControl = loadControls.get(profile);
+    loadControl.onPrepared();
+  }
+
+  @Override public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                         TrackSelectionArray trackSelections) {
+    loadControl.onTracksSelected(renderers, trackGroups, trackSelections);
+  }
+
+  @Override public void onStopped() {
+    loadControl.onStopped();
+  }
+
+  @Override public void onReleased() {
+    loadControl.onReleased();
+  }
+
+  @Override public Allocator getAllocator() {
+    return allocator;
+  }
+
+  @Override public long getBackBufferDurationUs() {
+    return loadControl.getBackBufferDurationUs();
+  }
+
+  @Override public boolean retainBackBufferFromKeyframe() {
+    return loadControl.retainBackBufferFromKeyframe();
+  }
+
+  @Override public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
+    return loadControl.shouldContinueLoading(bufferedDurationUs, playbackSpeed);
+  }
+
+  @Override public boolean shouldStartPlayback(long bufferedDurationUs, float playbackSpeed,
+                                               boolean rebuffering) {
+    return loadControl.shouldStartPlayback(bufferedDurationUs, playbackSpeed, rebuffering);
+  }
+}
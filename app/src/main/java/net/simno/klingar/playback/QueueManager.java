@@ -16,9 +16,11 @@
 package net.simno.klingar.playback;
 
 import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
 
 import com.jakewharton.rxrelay2.BehaviorRelay;
 
+import net.simno.klingar.data.model.PlexItem;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.data.model.TrackComparator;
 import net.simno.klingar.util.Pair;
@@ -26,14 +28,24 @@ import net.simno.klingar.util.Pair;
 import java.lang.annotation.Retention;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
 
 import static java.lang.annotation.RetentionPolicy.SOURCE;
 
+/**
+ * The play queue, current position and shuffle and repeat modes. They are kept in one immutable
+ * {@link State} that is swapped with compare-and-set, so readers always see a consistent state and
+ * writers on different threads (UI, playback thread, Cast updates) never block each other.
+ */
 public class QueueManager {
 
   public static final int SHUFFLE_OFF = 1;
@@ -42,16 +54,23 @@ public class QueueManager {
   public static final int REPEAT_ALL = 4;
   public static final int REPEAT_ONE = 5;
 
+  /** A provisional queue is only reconciled if creating the server queue succeeds, retry it. */
+  public static final int PLAY_QUEUE_RETRIES = 3;
+  public static final long PLAY_QUEUE_RETRY_DELAY_MS = 2000;
+
+  private static final long NOT_PROVISIONAL = 0;
+
   private final BehaviorRelay<Pair<Integer, Integer>> modeRelay =
       BehaviorRelay.createDefault(new Pair<>(SHUFFLE_OFF, REPEAT_OFF));
   private final BehaviorRelay<Pair<List<Track>, Integer>> queueRelay =
       BehaviorRelay.createDefault(new Pair<>(Collections.emptyList(), 0));
+  private final AtomicReference<State> state = new AtomicReference<>(State.EMPTY);
+  private final AtomicInteger publishers = new AtomicInteger();
+  private final AtomicLong provisionalTokens = new AtomicLong();
   private final Random random;
-
-  @ShuffleMode private int shuffleMode = SHUFFLE_OFF;
-  @RepeatMode private int repeatMode = REPEAT_OFF;
-  private List<Track> queue = Collections.emptyList();
-  private int position;
+  // Provisional queue item ids of the last reconciled queue, still used by a Cast receiver
+  private volatile Map<Long, Long> reconciledIds = Collections.emptyMap();
+  private State published = State.EMPTY; // Only accessed by the thread that is publishing
 
   public QueueManager(Random random) {
     this.random = random;
@@ -66,114 +85,250 @@ public class QueueManager {
   }
 
   @ShuffleMode int getShuffleMode() {
-    return shuffleMode;
+    return state.get().shuffleMode;
   }
 
   @RepeatMode int getRepeatMode() {
-    return repeatMode;
+    return state.get().repeatMode;
   }
 
   public void setQueue(List<Track> queue, long queueItemId) {
-    this.queue = queue;
-    setQueuePosition(queueItemId);
-    notifyQueue();
+    List<Track> newQueue = Collections.unmodifiableList(new ArrayList<>(queue));
+    update(current -> new State(newQueue, positionOf(newQueue, queueItemId), SHUFFLE_OFF,
+        current.repeatMode, NOT_PROVISIONAL));
+  }
 
-    if (shuffleMode != SHUFFLE_OFF) {
-      shuffleMode = SHUFFLE_OFF;
-      notifyMode();
+  /**
+   * Builds a queue from the tracks that are already loaded, so playback can start before the
+   * server has created the play queue. The tracks get negative queue item ids until the queue is
+   * reconciled with {@link #reconcileQueue(List, long)}.
+   *
+   * @return the provisional queue, with the tapped track at the position of its provisional id
+   */
+  public static List<Track> provisionalQueue(Track tapped, List<? extends PlexItem> items) {
+    List<Track> tracks = new ArrayList<>();
+    for (PlexItem item : items) {
+      if (item instanceof Track && ((Track) item).parentKey().equals(tapped.parentKey())) {
+        tracks.add((Track) item);
+      }
+    }
+    if (!tracks.contains(tapped)) {
+      tracks.add(tapped);
     }
+    Collections.sort(tracks, new TrackComparator());
+    List<Track> queue = new ArrayList<>();
+    for (int i = 0; i < tracks.size(); ++i) {
+      queue.add(tracks.get(i).toBuilder().queueItemId(-(i + 1)).build());
+    }
+    return queue;
   }
 
-  public Track currentTrack() {
-    return queue.get(position);
+  /**
+   * Sets a provisional queue built from the loaded items with the tapped track as current.
+   *
+   * @return the token to pass to {@link #reconcileQueue} with the server queue for this tap
+   */
+  public long setProvisionalQueue(Track tapped, List<? extends PlexItem> items) {
+    List<Track> newQueue = Collections.unmodifiableList(provisionalQueue(tapped, items));
+    long queueItemId = 0;
+    for (Track track : newQueue) {
+      if (track.ratingKey().equals(tapped.ratingKey())) {
+        queueItemId = track.queueItemId();
+        break;
+      }
+    }
+    long token = provisionalTokens.incrementAndGet();
+    reconciledIds = Collections.emptyMap(); // The provisional ids are reused by the new queue
+    int position = positionOf(newQueue, queueItemId);
+    update(current -> new State(newQueue, position, SHUFFLE_OFF, current.repeatMode, token));
+    return token;
   }
 
-  void setCurrentTrack(Track currentTrack) {
-    if (queue.contains(currentTrack)) {
-      setQueuePosition(currentTrack.queueItemId());
-    } else {
-      setQueue(Collections.singletonList(currentTrack), currentTrack.queueItemId());
+  /**
+   * Replaces a provisional queue with the play queue created by the server. Ignored if the user
+   * has started another track since the provisional queue was set, even one from the same items.
+   *
+   * @param token returned by {@link #setProvisionalQueue} for the tap the server queue belongs to
+   */
+  public void reconcileQueue(long token, List<Track> serverQueue, long selectedQueueItemId) {
+    List<Track> newQueue = Collections.unmodifiableList(new ArrayList<>(serverQueue));
+    Map<Long, Long> ids = new HashMap<>();
+    update(current -> {
+      ids.clear();
+      if (current.provisionalToken != token || current.queue.isEmpty()) {
+        return current;
+      }
+      Track track = current.currentTrack();
+      int newPosition = -1;
+      for (int i = 0; i < newQueue.size(); ++i) {
+        if (newQueue.get(i).ratingKey().equals(track.ratingKey())) {
+          newPosition = i;
+          if (newQueue.get(i).queueItemId() == selectedQueueItemId) {
+            break;
+          }
+        }
+      }
+      if (newPosition < 0) {
+        return current;
+      }
+      ids.putAll(reconciledIds(current.queue, newQueue));
+      State reconciled = new State(newQueue, newPosition, current.shuffleMode,
+          current.repeatMode, NOT_PROVISIONAL);
+      return current.shuffleMode != SHUFFLE_OFF ? shuffled(reconciled) : reconciled;
+    });
+    if (!ids.isEmpty()) {
+      reconciledIds = Collections.unmodifiableMap(ids);
     }
   }
 
-  void setQueuePosition(long queueItemId) {
-    int newPosition = getPositionFromQueueItem(queueItemId);
-    if (newPosition != position) {
-      position = newPosition;
-      notifyQueue();
+  /** Pairs each provisional track with the next unused server track of the same rating key. */
+  private static Map<Long, Long> reconciledIds(List<Track> provisional, List<Track> server) {
+    Map<Long, Long> ids = new HashMap<>();
+    boolean[] used = new boolean[server.size()];
+    for (Track track : provisional) {
+      for (int i = 0; i < server.size(); ++i) {
+        if (!used[i] && server.get(i).ratingKey().equals(track.ratingKey())) {
+          used[i] = true;
+          ids.put(track.queueItemId(), server.get(i).queueItemId());
+          break;
+        }
+      }
     }
+    return ids;
   }
 
-  void next() {
-    if (repeatMode == REPEAT_ONE) {
-      return;
-    }
+  public Track currentTrack() {
+    return state.get().currentTrack();
+  }
+
+  void setCurrentTrack(Track currentTrack) {
+    update(current -> {
+      if (current.queue.contains(currentTrack)) {
+        return current.withPosition(positionOf(current.queue, currentTrack.queueItemId()));
+      }
+      return new State(Collections.singletonList(currentTrack), 0, SHUFFLE_OFF,
+          current.repeatMode, NOT_PROVISIONAL);
+    });
+  }
 
-    int newPosition = position;
+  void setQueuePosition(long queueItemId) {
+    update(current -> current.withPosition(positionOf(current.queue, queueItemId)));
+  }
 
-    if ((newPosition + 1) >= queue.size()) {
-      if (repeatMode == REPEAT_ALL) {
-        newPosition = 0;
+  void next() {
+    update(current -> {
+      if (current.repeatMode == REPEAT_ONE) {
+        return current;
+      }
+      int newPosition = current.position;
+      if ((newPosition + 1) >= current.queue.size()) {
+        if (current.repeatMode == REPEAT_ALL) {
+          newPosition = 0;
+        } else {
+          newPosition = Math.max(0, current.queue.size() - 1);
+        }
       } else {
-        newPosition = Math.max(0, queue.size() - 1);
+        ++newPosition;
       }
-    } else {
-      ++newPosition;
-    }
-
-    position = newPosition;
-    notifyQueue();
+      return current.withPosition(newPosition);
+    });
   }
 
   void previous() {
-    if (repeatMode == REPEAT_ONE) {
-      return;
-    }
+    update(current -> {
+      if (current.repeatMode == REPEAT_ONE) {
+        return current;
+      }
+      int newPosition = current.position;
+      if ((newPosition - 1) < 0) {
+        if (current.repeatMode == REPEAT_ALL) {
+          newPosition = Math.max(0, current.queue.size() - 1);
+        } else {
+          newPosition = 0;
+        }
+      } else {
+        --newPosition;
+      }
+      return current.withPosition(newPosition);
+    });
+  }
 
-    int newPosition = position;
+  void shuffle() {
+    update(current -> current.shuffleMode == SHUFFLE_OFF ? shuffled(current) : sorted(current));
+  }
 
-    if ((newPosition - 1) < 0) {
-      if (repeatMode == REPEAT_ALL) {
-        newPosition = Math.max(0, queue.size() - 1);
+  void repeat() {
+    update(current -> {
+      @RepeatMode int repeatMode;
+      if (current.repeatMode == REPEAT_OFF) {
+        repeatMode = REPEAT_ALL;
+      } else if (current.repeatMode == REPEAT_ALL) {
+        repeatMode = REPEAT_ONE;
       } else {
-        newPosition = 0;
+        repeatMode = REPEAT_OFF;
+      }
+      return new State(current.queue, current.position, current.shuffleMode, repeatMode,
+          current.provisionalToken);
+    });
+  }
+
+  /**
+   * The current track followed by at most {@code size - 1} of the tracks that {@link #next()}
+   * would play after it.
+   */
+  List<Track> window(int size) {
+    State current = state.get();
+    if (current.queue.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Track> window = new ArrayList<>();
+    window.add(current.currentTrack());
+    if (current.repeatMode != REPEAT_ONE) {
+      int count = Math.min(size, current.queue.size());
+      for (int i = 1; i < count; ++i) {
+        int position = current.position + i;
+        if (position >= current.queue.size() && current.repeatMode != REPEAT_ALL) {
+          break;
+        }
+        window.add(current.queue.get(position % current.queue.size()));
       }
-    } else {
-      --newPosition;
     }
+    return window;
+  }
 
-    position = newPosition;
-    notifyQueue();
+  /**
+   * Maps a provisional queue item id to its id in the queue that reconciled it, e.g. for items the
+   * Cast receiver loaded before the server queue was created. Other ids are returned as they are.
+   */
+  long resolve(long queueItemId) {
+    Long reconciled = reconciledIds.get(queueItemId);
+    return reconciled != null && findExact(queueItemId) == null ? reconciled : queueItemId;
   }
 
-  void shuffle() {
-    if (shuffleMode == SHUFFLE_OFF) {
-      shuffleQueue();
-      shuffleMode = SHUFFLE_ALL;
-    } else {
-      sortQueue();
-      shuffleMode = SHUFFLE_OFF;
-    }
-    notifyQueue();
-    notifyMode();
+  /**
+   * @return the track with the queue item id, or its reconciled track if the id is provisional,
+   * or null if it is not in the queue
+   */
+  @Nullable Track find(long queueItemId) {
+    return findExact(resolve(queueItemId));
   }
 
-  void repeat() {
-    if (repeatMode == REPEAT_OFF) {
-      repeatMode = REPEAT_ALL;
-    } else if (repeatMode == REPEAT_ALL) {
-      repeatMode = REPEAT_ONE;
-    } else {
-      repeatMode = REPEAT_OFF;
+  @Nullable private Track findExact(long queueItemId) {
+    for (Track track : state.get().queue) {
+      if (track.queueItemId() == queueItemId) {
+        return track;
+      }
     }
-    notifyMode();
+    return null;
   }
 
   boolean hasNext() {
-    return (position + 1) < queue.size() || repeatMode == REPEAT_ONE || repeatMode == REPEAT_ALL;
+    State current = state.get();
+    return (current.position + 1) < current.queue.size() || current.repeatMode == REPEAT_ONE
+        || current.repeatMode == REPEAT_ALL;
   }
 
-  private int getPositionFromQueueItem(long id) {
+  private static int positionOf(List<Track> queue, long id) {
     for (int position = 0; position < queue.size(); ++position) {
       if (queue.get(position).queueItemId() == id) {
         return position;
@@ -182,24 +337,89 @@ public class QueueManager {
     return 0;
   }
 
-  private void sortQueue() {
-    Track currentTrack = queue.get(position);
+  private static State sorted(State current) {
+    List<Track> queue = new ArrayList<>(current.queue);
     Collections.sort(queue, new TrackComparator());
-    position = Math.max(0, queue.indexOf(currentTrack));
+    return reordered(current, queue, SHUFFLE_OFF);
   }
 
-  private void shuffleQueue() {
-    Track currentTrack = queue.get(position);
+  private State shuffled(State current) {
+    List<Track> queue = new ArrayList<>(current.queue);
     Collections.shuffle(queue, random);
-    position = Math.max(0, queue.indexOf(currentTrack));
+    return reordered(current, queue, SHUFFLE_ALL);
   }
 
-  private void notifyQueue() {
-    queueRelay.accept(new Pair<>(new ArrayList<>(queue), position));
+  private static State reordered(State current, List<Track> queue,
+                                 @ShuffleMode int shuffleMode) {
+    int position = current.queue.isEmpty() ? 0 : Math.max(0, queue.indexOf(current.currentTrack()));
+    return new State(Collections.unmodifiableList(queue), position, shuffleMode,
+        current.repeatMode, current.provisionalToken);
   }
 
-  private void notifyMode() {
-    modeRelay.accept(new Pair<>(shuffleMode, repeatMode));
+  private void update(Transition transition) {
+    State current;
+    State next;
+    do {
+      current = state.get();
+      next = transition.apply(current);
+    } while (next != current && !state.compareAndSet(current, next));
+    if (next != current) {
+      publish();
+    }
+  }
+
+  /**
+   * Emits the latest state without locking. A writer that finds another one publishing leaves it
+   * to that one, which loops until no newer state is left, so the last emission is never stale.
+   */
+  private void publish() {
+    if (publishers.getAndIncrement() != 0) {
+      return;
+    }
+    do {
+      State latest = state.get();
+      if (latest.queue != published.queue || latest.position != published.position) {
+        queueRelay.accept(new Pair<>(latest.queue, latest.position));
+      }
+      if (latest.shuffleMode != published.shuffleMode
+          || latest.repeatMode != published.repeatMode) {
+        modeRelay.accept(new Pair<>(latest.shuffleMode, latest.repeatMode));
+      }
+      published = latest;
+    } while (publishers.decrementAndGet() != 0);
+  }
+
+  private interface Transition {
+    State apply(State current);
+  }
+
+  private static final class State {
+    static final State EMPTY = new State(Collections.emptyList(), 0, SHUFFLE_OFF, REPEAT_OFF,
+        NOT_PROVISIONAL);
+
+    final List<Track> queue; // Unmodifiable
+    final int position;
+    @ShuffleMode final int shuffleMode;
+    @RepeatMode final int repeatMode;
+    final long provisionalToken; // Set while the server has not created the queue yet
+
+    State(List<Track> queue, int position, @ShuffleMode int shuffleMode,
+          @RepeatMode int repeatMode, long provisionalToken) {
+      this.queue = queue;
+      this.position = position;
+      this.shuffleMode = shuffleMode;
+      this.repeatMode = repeatMode;
+      this.provisionalToken = provisionalToken;
+    }
+
+    Track currentTrack() {
+      return queue.get(position);
+    }
+
+    State withPosition(int newPosition) {
+      return newPosition == position ? this
+          : new State(queue, newPosition, shuffleMode, repeatMode, provisionalToken);
+    }
   }
 
   @Retention(SOURCE)
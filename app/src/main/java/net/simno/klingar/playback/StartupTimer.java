@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import net.simno.klingar.AndroidClock;
+import net.simno.klingar.util.Metrics;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Measures the time from tapping a track until it is audible. Each stage is recorded as
+ * {@code startup.<stage>_ms}, the time since the previous stage, and the whole startup as
+ * {@code startup.total_ms}.
+ */
+public class StartupTimer {
+
+  public static final String QUEUE = "queue";
+  static final String CONNECT = "connect";
+  static final String FIRST_BYTE = "first_byte";
+  static final String DECODER = "decoder";
+  static final String AUDIBLE = "audible";
+
+  private final Set<String> stages = new HashSet<>();
+  private final AndroidClock androidClock;
+  private final Metrics metrics;
+  private long startedAt = -1;
+  private long lastStageAt;
+
+  StartupTimer(AndroidClock androidClock, Metrics metrics) {
+    this.androidClock = androidClock;
+    this.metrics = metrics;
+  }
+
+  /** Called when the user asks for a track to be played. */
+  public synchronized void start() {
+    startedAt = androidClock.elapsedRealTime();
+    lastStageAt = startedAt;
+    stages.clear();
+  }
+
+  /** Called when the track will not be played, e.g. because creating the queue failed. */
+  public synchronized void cancel() {
+    startedAt = -1;
+  }
+
+  /** Records a stage once per startup. Ignored when no startup is being timed. */
+  public synchronized void mark(String stage) {
+    if (startedAt < 0 || !stages.add(stage)) {
+      return;
+    }
+    long now = androidClock.elapsedRealTime();
+    metrics.record("startup." + stage + "_ms", now - lastStageAt);
+    lastStageAt = now;
+    if (AUDIBLE.equals(stage)) {
+      metrics.record("startup.total_ms", now - startedAt);
+      startedAt = -1;
+    }
+  }
+}
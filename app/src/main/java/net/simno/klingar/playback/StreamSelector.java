@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+import net.simno.klingar.data.model.Track;
+import net.simno.klingar.util.Metrics;
+import net.simno.klingar.util.Urls;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Chooses between playing the original file and the universal transcoder, based on the format of
+ * the file and the bandwidth measured while streaming. The choice is made for every track so that
+ * later tracks follow the network conditions.
+ */
+class StreamSelector {
+
+  static final int DIRECT_PLAY = 0;
+
+  /** Transcoder bitrates in kbps, highest first. */
+  private static final int[] TRANSCODE_BITRATES = {320, 256, 192, 128, 96, 64};
+  /** Leave room for the buffer to grow faster than playback consumes it. */
+  private static final double BANDWIDTH_FRACTION = 0.7;
+  /** Plex codec and container names that ExoPlayer core can play on every supported device. */
+  private static final Set<String> DIRECT_PLAY_CODECS =
+      new HashSet<>(Arrays.asList("aac", "flac", "mp3", "opus", "pcm", "vorbis"));
+  private static final Set<String> DIRECT_PLAY_CONTAINERS =
+      new HashSet<>(Arrays.asList("aac", "m4a", "mka", "mp3", "mp4", "ogg", "wav"));
+
+  private final BandwidthMeter bandwidthMeter;
+  private final Metrics metrics;
+
+  StreamSelector(BandwidthMeter bandwidthMeter, Metrics metrics) {
+    this.bandwidthMeter = bandwidthMeter;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param trackBitrate bitrate of the original media in kbps, or 0 if unknown
+   * @param bandwidth    estimated bandwidth in bits per second
+   * @return {@link #DIRECT_PLAY} or the transcoder bitrate in kbps
+   */
+  static int selectBitrate(int trackBitrate, long bandwidth) {
+    long available = (long) (bandwidth * BANDWIDTH_FRACTION / 1000);
+    if (trackBitrate <= 0 || trackBitrate <= available) {
+      return DIRECT_PLAY;
+    }
+    int selected = DIRECT_PLAY;
+    for (int bitrate : TRANSCODE_BITRATES) {
+      if (bitrate < trackBitrate) {
+        selected = bitrate;
+        if (bitrate <= available) {
+          break;
+        }
+      }
+    }
+    return selected;
+  }
+
+  /** @return false if the original file can not be played, unknown formats are tried anyway */
+  static boolean canPlayDirectly(@Nullable String codec, @Nullable String container) {
+    return (codec == null || DIRECT_PLAY_CODECS.contains(codec.toLowerCase(Locale.US)))
+        && (container == null || DIRECT_PLAY_CONTAINERS.contains(container.toLowerCase(Locale.US)));
+  }
+
+  /** @return estimated bandwidth in bits per second */
+  long bandwidthEstimate() {
+    return bandwidthMeter.getBitrateEstimate();
+  }
+
+  /**
+   * @param precached true if the start of the original file is in the audio cache, a playable file
+   *                  is then played directly so that the cached bytes are not wasted on a cold
+   *                  transcode
+   */
+  Uri select(Track track, boolean precached) {
+    boolean direct = canPlayDirectly(track.codec(), track.container());
+    if (precached && direct) {
+      metrics.increment("stream.precached");
+      return Uri.parse(track.source());
+    }
+    long bandwidth = bandwidthEstimate();
+    metrics.record("stream.bandwidth_kbps", bandwidth / 1000);
+    if (!direct) {
+      metrics.increment("stream.unsupported");
+    }
+    // An unsupported file is treated as if it had a higher bitrate than any transcode
+    int bitrate = selectBitrate(direct ? track.bitrate() : Integer.MAX_VALUE, bandwidth);
+    if (bitrate == DIRECT_PLAY) {
+      metrics.increment("stream.direct");
+      return Uri.parse(track.source());
+    }
+    metrics.increment("stream.transcode");
+    Timber.d("Transcoding %s from %d to %d kbps, bandwidth %d kbps", track.title(),
+        track.bitrate(), bitrate, bandwidth / 1000);
+    return Uri.parse(Urls.getAudioTranscodeUrl(track.uri(), track.key(), bitrate).toString());
+  }
+}
@@ -15,13 +15,31 @@
  */
 package net.simno.klingar.playback;
 
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+
+import net.simno.klingar.data.Prefs;
 import net.simno.klingar.data.api.MediaService;
+import net.simno.klingar.data.model.TimelineReport;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.util.Rx;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.observers.DisposableCompletableObserver;
+import okhttp3.HttpUrl;
+import retrofit2.HttpException;
 import timber.log.Timber;
 
 import static android.support.v4.media.session.PlaybackStateCompat.STATE_PAUSED;
@@ -29,49 +47,208 @@ import static android.support.v4.media.session.PlaybackStateCompat.STATE_PLAYING
 import static android.support.v4.media.session.PlaybackStateCompat.STATE_STOPPED;
 
 /**
- * Updates the Plex server of current playback status
+ * Updates the Plex server of current playback status. Reports wait in an outbox that is saved
+ * in prefs until the server has accepted them, only the latest report of each queue item is kept
+ * and only one request is in flight at a time. Failed requests are retried with exponential
+ * backoff, new reports wait for the retry and only {@link #flush()} retries right away.
  */
 class TimelineManager {
 
+  static final String PREF_OUTBOX = "pref_timeline_outbox";
+  static final long PROGRESS_INTERVAL_MS = 10000; // Send updates every 10 seconds
+  static final long MIN_BACKOFF_MS = 1000;
+  static final long MAX_BACKOFF_MS = 300000;
+  private static final int MAX_REPORTS = 50;
+
+  private final Map<Long, TimelineReport> outbox = new LinkedHashMap<>();
   private final MusicController musicController;
   private final QueueManager queueManager;
   private final MediaService media;
+  private final Prefs prefs;
   private final Rx rx;
+  private final Scheduler retryScheduler;
+  private final JsonAdapter<List<TimelineReport>> adapter;
   private Disposable disposable;
+  private Disposable request;
+  private Disposable retry;
+  private boolean sending;
+  private int failures;
 
   TimelineManager(MusicController musicController, QueueManager queueManager, MediaService media,
-                  Rx rx) {
+                  Prefs prefs, Rx rx, Scheduler retryScheduler) {
     this.musicController = musicController;
     this.queueManager = queueManager;
     this.media = media;
+    this.prefs = prefs;
     this.rx = rx;
+    this.retryScheduler = retryScheduler;
+    Moshi moshi = new Moshi.Builder()
+        .add((type, annotations, m) ->
+            type.equals(TimelineReport.class) ? TimelineReport.jsonAdapter(m) : null)
+        .build();
+    this.adapter = moshi.adapter(Types.newParameterizedType(List.class, TimelineReport.class));
+  }
+
+  static long backoff(int failures) {
+    return Math.min(MIN_BACKOFF_MS << Math.min(failures - 1, 20), MAX_BACKOFF_MS);
   }
 
   void start() {
-    disposable = Flowable.combineLatest(state(), currentTrack(), progress(),
-        (state, track, time) -> new Timeline(state, time, track))
-        .observeOn(rx.io())
-        .flatMapCompletable(this::updateTimeline)
-        .subscribeOn(rx.io())
-        .observeOn(rx.io())
-        .subscribe(() -> Timber.d("onCompleted"), Rx::onError);
+    load();
+    disposable = Flowable.combineLatest(state(), currentTrack(), progress(), this::report)
+        .distinctUntilChanged()
+        .observeOn(rx.background())
+        .subscribeOn(rx.background())
+        .subscribe(this::enqueue, Rx::onError);
+    drain(); // Reports left from last time
+  }
+
+  void stop() {
+    Rx.dispose(disposable);
+    synchronized (this) {
+      Rx.dispose(request);
+      Rx.dispose(retry);
+      retry = null;
+      sending = false;
+    }
+  }
+
+  /** Sends the outbox now, e.g. when the network is back. */
+  synchronized void flush() {
+    failures = 0;
+    Rx.dispose(retry);
+    retry = null;
+    drain();
+  }
+
+  synchronized int pending() {
+    return outbox.size();
+  }
+
+  private TimelineReport report(String state, Track track, long time) {
+    return TimelineReport.builder()
+        .uri(track.uri().toString())
+        .queueItemId(track.queueItemId())
+        .key(track.key())
+        .ratingKey(track.ratingKey())
+        .state(state)
+        .duration(track.duration())
+        .time(time)
+        .build();
+  }
+
+  private synchronized void enqueue(TimelineReport report) {
+    // Latest wins, the server only cares about the current state of a queue item
+    outbox.remove(report.queueItemId());
+    outbox.put(report.queueItemId(), report);
+    Iterator<TimelineReport> iterator = outbox.values().iterator();
+    while (outbox.size() > MAX_REPORTS) {
+      iterator.next();
+      iterator.remove();
+    }
+    save();
+    // Waits for a pending retry, new reports arrive too often to cut the backoff short
+    drain();
+  }
+
+  private synchronized void drain() {
+    if (sending || retry != null || outbox.isEmpty()) {
+      return;
+    }
+    TimelineReport report = outbox.values().iterator().next();
+    sending = true;
+    DisposableCompletableObserver observer = new DisposableCompletableObserver() {
+      @Override public void onComplete() {
+        onSent(report);
+      }
+
+      @Override public void onError(Throwable throwable) {
+        onFailed(report, throwable);
+      }
+    };
+    // Set before subscribing, a send that completes right away drains the next report and that
+    // request is the one stop() has to dispose
+    request = observer;
+    send(report)
+        .subscribeOn(rx.background())
+        .subscribe(observer);
+  }
+
+  private Completable send(TimelineReport r) {
+    return media.timeline(HttpUrl.get(r.uri()), r.queueItemId(), r.key(), r.ratingKey(),
+        r.state(), r.duration(), r.time());
+  }
+
+  private synchronized void onSent(TimelineReport report) {
+    sending = false;
+    failures = 0;
+    remove(report);
+    drain();
+  }
+
+  private synchronized void onFailed(TimelineReport report, Throwable throwable) {
+    sending = false;
+    if (throwable instanceof HttpException && ((HttpException) throwable).code() < 500) {
+      // The server will never accept it
+      Timber.d("Dropping timeline report %s", throwable.getMessage());
+      remove(report);
+      drain();
+      return;
+    }
+    failures++;
+    long delay = backoff(failures);
+    Timber.d("Timeline update failed, retrying in %d ms", delay);
+    retry = Completable.timer(delay, TimeUnit.MILLISECONDS, retryScheduler)
+        .subscribe(this::onRetry, Rx::onError);
+  }
+
+  private synchronized void onRetry() {
+    retry = null;
+    drain();
+  }
+
+  private void remove(TimelineReport report) {
+    // Keep it if a newer report of the same item arrived while this one was sent
+    if (report.equals(outbox.get(report.queueItemId()))) {
+      outbox.remove(report.queueItemId());
+      save();
+    }
+  }
+
+  private synchronized void load() {
+    String json = prefs.getString(PREF_OUTBOX, null);
+    if (json == null) {
+      return;
+    }
+    try {
+      List<TimelineReport> reports = adapter.fromJson(json);
+      if (reports != null) {
+        for (TimelineReport report : reports) {
+          outbox.put(report.queueItemId(), report);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      Timber.e(e, "Could not read timeline outbox");
+    }
   }
 
-  private Completable updateTimeline(Timeline t) {
-    return media.timeline(t.track.uri(), t.track.queueItemId(), t.track.key(), t.track.ratingKey(),
-        t.state, t.track.duration(), t.time)
-        .onErrorComplete(); // Skip errors;
+  private void save() {
+    if (outbox.isEmpty()) {
+      prefs.remove(PREF_OUTBOX);
+    } else {
+      prefs.putString(PREF_OUTBOX, adapter.toJson(new ArrayList<>(outbox.values())));
+    }
   }
 
   private Flowable<Long> progress() {
-    return musicController.progress()
-        .filter(progress -> (progress % 10000) == 0);  // Send updates every 10 seconds
+    return musicController.progress(PROGRESS_INTERVAL_MS);
   }
 
   private Flowable<Track> currentTrack() {
     return queueManager.queue()
         .filter(pair -> pair.second < pair.first.size())
-        .map(pair -> pair.first.get(pair.second));
+        .map(pair -> pair.first.get(pair.second))
+        .filter(track -> !track.isProvisional()); // Not known by the server yet
   }
 
   private Flowable<String> state() {
@@ -86,20 +263,4 @@ class TimelineManager {
           return "stopped";
         });
   }
-
-  void stop() {
-    Rx.dispose(disposable);
-  }
-
-  private static class Timeline {
-    private final String state;
-    private final long time;
-    private final Track track;
-
-    Timeline(String state, long time, Track track) {
-      this.state = state;
-      this.time = time;
-      this.track = track;
-    }
-  }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import net.simno.klingar.data.model.PlexItem;
+import net.simno.klingar.data.model.Track;
+import net.simno.klingar.data.repository.MusicRepository;
+import net.simno.klingar.util.Rx;
+
+import java.util.List;
+
+/**
+ * Starts a tapped track right away from the items that are already loaded, while the server
+ * creates the real play queue, and then reconciles the local queue with the one from the server.
+ */
+public class TrackStarter {
+
+  private final QueueManager queueManager;
+  private final MusicController musicController;
+  private final MusicRepository musicRepository;
+  private final StartupTimer startupTimer;
+  private final Rx rx;
+  private final long retryDelayMs;
+
+  TrackStarter(QueueManager queueManager, MusicController musicController,
+               MusicRepository musicRepository, StartupTimer startupTimer, Rx rx) {
+    this(queueManager, musicController, musicRepository, startupTimer, rx,
+        QueueManager.PLAY_QUEUE_RETRY_DELAY_MS);
+  }
+
+  TrackStarter(QueueManager queueManager, MusicController musicController,
+               MusicRepository musicRepository, StartupTimer startupTimer, Rx rx,
+               long retryDelayMs) {
+    this.queueManager = queueManager;
+    this.musicController = musicController;
+    this.musicRepository = musicRepository;
+    this.startupTimer = startupTimer;
+    this.rx = rx;
+    this.retryDelayMs = retryDelayMs;
+  }
+
+  /**
+   * @param track the tapped track
+   * @param items the loaded items that the track was tapped in, the tracks among them become the
+   *              provisional queue
+   */
+  public void play(Track track, List<? extends PlexItem> items) {
+    startupTimer.start();
+
+    long token = queueManager.setProvisionalQueue(track, items);
+    startupTimer.mark(StartupTimer.QUEUE);
+    musicController.play();
+
+    // Not bound to a lifecycle, the queue should be reconciled even if the user navigates away
+    musicRepository.createPlayQueue(track)
+        .subscribeOn(rx.playback())
+        .retryWhen(rx.retryWithBackoff(QueueManager.PLAY_QUEUE_RETRIES, retryDelayMs))
+        .compose(rx.singleSchedulers())
+        .subscribe(pair -> queueManager.reconcileQueue(token, pair.first, pair.second),
+            throwable -> {
+              // Nothing is timed if the provisional queue is already audible
+              startupTimer.cancel();
+              Rx.onError(throwable);
+            });
+  }
+}
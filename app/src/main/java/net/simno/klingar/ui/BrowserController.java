@@ -36,11 +36,19 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.bluelinelabs.conductor.Router;
 import com.bluelinelabs.conductor.RouterTransaction;
+import com.bumptech.glide.Glide;
 import com.google.android.gms.cast.framework.CastButtonFactory;
+import com.google.android.material.snackbar.Snackbar;
 
+import net.simno.klingar.BuildConfig;
 import net.simno.klingar.KlingarApp;
 import net.simno.klingar.R;
+import net.simno.klingar.data.ConnectionWarmer;
+import net.simno.klingar.data.ServerConnections;
+import net.simno.klingar.data.ServerHealth;
 import net.simno.klingar.data.ServerManager;
+import net.simno.klingar.data.ServerMonitor;
+import net.simno.klingar.data.model.ConnectionStatus;
 import net.simno.klingar.data.model.Album;
 import net.simno.klingar.data.model.Artist;
 import net.simno.klingar.data.model.Library;
@@ -49,21 +57,29 @@ import net.simno.klingar.data.model.PlexItem;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.data.repository.MusicRepository;
 import net.simno.klingar.playback.MusicController;
-import net.simno.klingar.playback.QueueManager;
+import net.simno.klingar.playback.TrackStarter;
 import net.simno.klingar.ui.adapter.MusicAdapter;
+import net.simno.klingar.ui.adapter.ThumbPreloader;
 import net.simno.klingar.ui.widget.DividerItemDecoration;
 import net.simno.klingar.ui.widget.EndScrollListener;
+import net.simno.klingar.util.Pair;
 import net.simno.klingar.util.Rx;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 
+import butterknife.BindDimen;
 import butterknife.BindDrawable;
+import butterknife.BindString;
 import butterknife.BindView;
 import butterknife.OnClick;
+import io.reactivex.Flowable;
+import okhttp3.HttpUrl;
 import timber.log.Timber;
 
 import static com.bluelinelabs.conductor.rxlifecycle2.ControllerEvent.DETACH;
@@ -76,15 +92,21 @@ public class BrowserController extends BaseController implements
 
   private static final int PAGE_SIZE = 50;
   private final MusicAdapter adapter;
+  private ThumbPreloader thumbPreloader;
   @BindView(R.id.toolbar_libs_spinner) Spinner toolbarSpinner;
   @BindView(R.id.content_loading) ContentLoadingProgressBar contentLoading;
   @BindView(R.id.recycler_view) RecyclerView recyclerView;
   @BindView(R.id.miniplayer_container) FrameLayout miniplayerContainer;
   @BindDrawable(R.drawable.item_divider) Drawable itemDivider;
+  @BindDimen(R.dimen.item_height) int itemHeight;
+  @BindString(R.string.library_offline) String libraryOffline;
   @Inject ServerManager serverManager;
+  @Inject ConnectionWarmer connectionWarmer;
+  @Inject ServerHealth serverHealth;
+  @Inject ServerMonitor serverMonitor;
   @Inject MusicRepository musicRepository;
-  @Inject QueueManager queueManager;
   @Inject MusicController musicController;
+  @Inject TrackStarter trackStarter;
   @Inject Rx rx;
   private EndScrollListener endScrollListener;
   private List<Library> libs = Collections.emptyList();
@@ -93,6 +115,7 @@ public class BrowserController extends BaseController implements
   private int currentPage = -1;
   private boolean isLoading;
   private boolean serverRefreshed;
+  private Snackbar unavailableSnackbar;
 
   public BrowserController(Bundle args) {
     super(args);
@@ -137,6 +160,7 @@ public class BrowserController extends BaseController implements
     recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
     recyclerView.setHasFixedSize(true);
     recyclerView.addItemDecoration(new DividerItemDecoration(itemDivider));
+    thumbPreloader = new ThumbPreloader(Glide.with(view), adapter, itemHeight);
 
     contentLoading.hide();
 
@@ -146,6 +170,12 @@ public class BrowserController extends BaseController implements
   @Override protected void onAttach(@NonNull View view) {
     super.onAttach(view);
     recyclerView.setAdapter(adapter);
+    recyclerView.addOnScrollListener(thumbPreloader.scrollListener());
+    if (mediaType != null) {
+      connectionWarmer.warm(mediaType.uri());
+    } else if (currentLib != null) {
+      connectionWarmer.warm(currentLib.uri());
+    }
     if (mediaType == null) {
       if (!serverRefreshed) {
         serverRefreshed = true;
@@ -160,10 +190,15 @@ public class BrowserController extends BaseController implements
       }
     }
     observePlayback();
+    observeServerHealth(view);
   }
 
   @Override protected void onDetach(@NonNull View view) {
     super.onDetach(view);
+    if (unavailableSnackbar != null) {
+      unavailableSnackbar.dismiss();
+      unavailableSnackbar = null;
+    }
     recyclerView.clearOnScrollListeners();
     recyclerView.setAdapter(null);
   }
@@ -171,6 +206,7 @@ public class BrowserController extends BaseController implements
   @Override public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
     super.onCreateOptionsMenu(menu, inflater);
     inflater.inflate(R.menu.menu_main, menu);
+    menu.findItem(R.id.metrics).setVisible(BuildConfig.DEBUG);
     CastButtonFactory.setUpMediaRouteButton(getApplicationContext(), menu,
         R.id.media_route_menu_item);
   }
@@ -198,17 +234,30 @@ public class BrowserController extends BaseController implements
   }
 
   private void observeLibs() {
-    disposables.add(serverManager.libs()
+    Flowable<Set<HttpUrl>> unavailable = serverMonitor.statuses()
+        .map(statuses -> {
+          Set<HttpUrl> uris = new HashSet<>();
+          for (ConnectionStatus status : statuses) {
+            if (!status.available()) {
+              uris.add(status.uri());
+            }
+          }
+          return uris;
+        })
+        .distinctUntilChanged();
+    disposables.add(Flowable.combineLatest(serverManager.libs(), unavailable, Pair::new)
         .compose(bindUntilEvent(DETACH))
         .compose(rx.flowableSchedulers())
-        .subscribe(libs -> {
+        .subscribe(pair -> {
+          List<Library> libs = pair.first;
           BrowserController.this.libs = libs;
 
           ArrayList<String> libNames = new ArrayList<>();
           int currentPosition = 0;
           for (int i = 0; i < libs.size(); ++i) {
             Library lib = libs.get(i);
-            libNames.add(lib.name());
+            libNames.add(pair.second.contains(ServerConnections.origin(lib.uri()))
+                ? String.format(libraryOffline, lib.name()) : lib.name());
             if (lib.equals(currentLib)) {
               currentPosition = i;
             }
@@ -248,6 +297,7 @@ public class BrowserController extends BaseController implements
           if (items.isEmpty()) {
             stopEndlessScrolling();
           } else {
+            thumbPreloader.warm(items);
             adapter.addAll(items);
           }
           currentPage++; // Only increment page if current page was loaded successfully
@@ -287,6 +337,25 @@ public class BrowserController extends BaseController implements
         }, Rx::onError));
   }
 
+  private void observeServerHealth(View view) {
+    disposables.add(serverHealth.unavailableHosts()
+        .compose(bindUntilEvent(DETACH))
+        .compose(rx.flowableSchedulers())
+        .subscribe(hosts -> {
+          HttpUrl uri = mediaType != null ? mediaType.uri()
+              : currentLib != null ? currentLib.uri() : null;
+          boolean unavailable = uri != null && hosts.contains(uri.host());
+          if (unavailable && unavailableSnackbar == null) {
+            unavailableSnackbar = Snackbar.make(view, R.string.server_unavailable,
+                Snackbar.LENGTH_INDEFINITE);
+            unavailableSnackbar.show();
+          } else if (!unavailable && unavailableSnackbar != null) {
+            unavailableSnackbar.dismiss();
+            unavailableSnackbar = null;
+          }
+        }, Rx::onError));
+  }
+
   private void goToMediaType(MediaType mediaType) {
     Bundle args = new Bundle();
     args.putParcelable(PLEX_ITEM, mediaType);
@@ -301,13 +370,7 @@ public class BrowserController extends BaseController implements
 
   private void playTrack(Track track) {
     Timber.d("playTrack %s", track);
-    disposables.add(musicRepository.createPlayQueue(track)
-        .compose(bindUntilEvent(DETACH))
-        .compose(rx.singleSchedulers())
-        .subscribe(pair -> {
-          queueManager.setQueue(pair.first, pair.second);
-          musicController.play();
-        }, Rx::onError));
+    trackStarter.play(track, adapter.getItems());
   }
 
   @Override public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
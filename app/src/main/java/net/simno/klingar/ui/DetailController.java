@@ -21,9 +21,11 @@ import android.support.v4.media.session.PlaybackStateCompat;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.ActionBar;
@@ -33,23 +35,27 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.bluelinelabs.conductor.Router;
 import com.bluelinelabs.conductor.RouterTransaction;
+import com.bumptech.glide.Glide;
 import com.google.android.gms.cast.framework.CastButtonFactory;
 
 import net.simno.klingar.KlingarApp;
 import net.simno.klingar.R;
+import net.simno.klingar.data.download.DownloadManager;
 import net.simno.klingar.data.model.Album;
 import net.simno.klingar.data.model.Artist;
 import net.simno.klingar.data.model.PlexItem;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.data.repository.MusicRepository;
 import net.simno.klingar.playback.MusicController;
-import net.simno.klingar.playback.QueueManager;
+import net.simno.klingar.playback.TrackStarter;
 import net.simno.klingar.ui.adapter.MusicAdapter;
+import net.simno.klingar.ui.adapter.ThumbPreloader;
 import net.simno.klingar.ui.widget.DividerItemDecoration;
 import net.simno.klingar.util.Rx;
 
 import javax.inject.Inject;
 
+import butterknife.BindDimen;
 import butterknife.BindDrawable;
 import butterknife.BindView;
 import butterknife.OnClick;
@@ -62,13 +68,16 @@ public class DetailController extends BaseController implements
     MusicAdapter.OnPlexItemClickListener {
 
   private final MusicAdapter adapter;
+  private ThumbPreloader thumbPreloader;
   @BindView(R.id.recycler_view) RecyclerView recyclerView;
   @BindView(R.id.content_loading) ContentLoadingProgressBar contentLoading;
   @BindView(R.id.miniplayer_container) FrameLayout miniplayerContainer;
   @BindDrawable(R.drawable.item_divider) Drawable itemDivider;
+  @BindDimen(R.dimen.item_height) int itemHeight;
   @Inject MusicRepository musicRepository;
-  @Inject QueueManager queueManager;
   @Inject MusicController musicController;
+  @Inject TrackStarter trackStarter;
+  @Inject DownloadManager downloadManager;
   @Inject Rx rx;
   private PlexItem plexItem;
   private boolean itemsLoaded;
@@ -112,6 +121,7 @@ public class DetailController extends BaseController implements
     recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
     recyclerView.setHasFixedSize(true);
     recyclerView.addItemDecoration(new DividerItemDecoration(itemDivider));
+    thumbPreloader = new ThumbPreloader(Glide.with(view), adapter, itemHeight);
 
     contentLoading.hide();
 
@@ -121,6 +131,7 @@ public class DetailController extends BaseController implements
   @Override protected void onAttach(@NonNull View view) {
     super.onAttach(view);
     recyclerView.setAdapter(adapter);
+    recyclerView.addOnScrollListener(thumbPreloader.scrollListener());
     if (!itemsLoaded) {
       if (plexItem instanceof Artist) {
         getArtistItems((Artist) plexItem);
@@ -140,10 +151,24 @@ public class DetailController extends BaseController implements
   @Override public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
     super.onCreateOptionsMenu(menu, inflater);
     inflater.inflate(R.menu.menu_main, menu);
+    inflater.inflate(R.menu.menu_download, menu);
     CastButtonFactory.setUpMediaRouteButton(getApplicationContext(), menu,
         R.id.media_route_menu_item);
   }
 
+  @Override public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+    if (item.getItemId() == R.id.download) {
+      if (plexItem instanceof Artist) {
+        downloadManager.download((Artist) plexItem);
+      } else if (plexItem instanceof Album) {
+        downloadManager.download((Album) plexItem);
+      }
+      Toast.makeText(getActivity(), R.string.download_started, Toast.LENGTH_SHORT).show();
+      return true;
+    }
+    return super.onOptionsItemSelected(item);
+  }
+
   @Override public void onPlexItemClicked(PlexItem plexItem) {
     if (plexItem instanceof Album) {
       goToDetails(plexItem);
@@ -161,6 +186,7 @@ public class DetailController extends BaseController implements
         .compose(bindUntilEvent(DETACH))
         .compose(rx.singleSchedulers())
         .subscribe(items -> {
+          thumbPreloader.warm(items);
           adapter.addAll(items);
           itemsLoaded = true;
         }, Rx::onError));
@@ -171,6 +197,7 @@ public class DetailController extends BaseController implements
         .compose(bindUntilEvent(DETACH))
         .compose(rx.singleSchedulers())
         .subscribe(items -> {
+          thumbPreloader.warm(items);
           adapter.addAll(items);
           itemsLoaded = true;
         }, Rx::onError));
@@ -206,12 +233,6 @@ public class DetailController extends BaseController implements
 
   private void playTrack(Track track) {
     Timber.d("playTrack %s", track);
-    disposables.add(musicRepository.createPlayQueue(track)
-        .compose(bindUntilEvent(DETACH))
-        .compose(rx.singleSchedulers())
-        .subscribe(pair -> {
-          queueManager.setQueue(pair.first, pair.second);
-          musicController.play();
-        }, Rx::onError));
+    trackStarter.play(track, adapter.getItems());
   }
 }
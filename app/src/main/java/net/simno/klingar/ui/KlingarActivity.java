@@ -34,7 +34,9 @@ import com.google.android.gms.oss.licenses.OssLicensesMenuActivity;
 
 import net.simno.klingar.KlingarApp;
 import net.simno.klingar.R;
+import net.simno.klingar.data.ConnectionWarmer;
 import net.simno.klingar.data.LoginManager;
+import net.simno.klingar.data.ServerMonitor;
 import net.simno.klingar.playback.MusicController;
 import net.simno.klingar.playback.MusicService;
 
@@ -48,6 +50,8 @@ public class KlingarActivity extends AppCompatActivity {
   @BindView(R.id.controller_container) ViewGroup container;
 
   @Inject LoginManager loginManager;
+  @Inject ConnectionWarmer connectionWarmer;
+  @Inject ServerMonitor serverMonitor;
   @Inject MusicController musicController;
   private Router router;
   private boolean bound;
@@ -81,10 +85,13 @@ public class KlingarActivity extends AppCompatActivity {
   @Override protected void onStart() {
     super.onStart();
     bindService(new Intent(this, MusicService.class), connection, Context.BIND_AUTO_CREATE);
+    connectionWarmer.rewarm();
+    serverMonitor.setForeground(true);
   }
 
   @Override protected void onStop() {
     super.onStop();
+    serverMonitor.setForeground(false);
     if (bound) {
       unbindService(connection);
       bound = false;
@@ -99,6 +106,9 @@ public class KlingarActivity extends AppCompatActivity {
       case R.id.licenses:
         showCredits();
         return true;
+      case R.id.metrics:
+        router.pushController(RouterTransaction.with(new MetricsController(null)));
+        return true;
       case R.id.sign_out:
         logout();
         return true;
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.ui;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.ActionBar;
+
+import net.simno.klingar.KlingarApp;
+import net.simno.klingar.R;
+import net.simno.klingar.util.Metrics;
+
+import javax.inject.Inject;
+
+import butterknife.BindString;
+import butterknife.BindView;
+
+/** Debug screen that shows the current {@link Metrics} as text. */
+public class MetricsController extends BaseController {
+
+  @BindView(R.id.metrics_text) TextView metricsText;
+  @BindString(R.string.menu_metrics) String title;
+  @Inject Metrics metrics;
+
+  public MetricsController(Bundle args) {
+    super(args);
+  }
+
+  @Override protected int getLayoutResource() {
+    return R.layout.controller_metrics;
+  }
+
+  @Override protected void injectDependencies() {
+    if (getActivity() != null) {
+      KlingarApp.get(getActivity()).component().inject(this);
+    }
+  }
+
+  @NonNull @Override
+  protected View onCreateView(@NonNull LayoutInflater inflater, @NonNull ViewGroup container) {
+    View view = super.onCreateView(inflater, container);
+
+    ActionBar actionBar = null;
+    if (getActivity() != null) {
+      actionBar = ((KlingarActivity) getActivity()).getSupportActionBar();
+    }
+    if (actionBar != null) {
+      setHasOptionsMenu(true);
+      actionBar.setDisplayHomeAsUpEnabled(true);
+      actionBar.setDisplayShowTitleEnabled(true);
+      actionBar.setTitle(title);
+    }
+
+    return view;
+  }
+
+  @Override protected void onAttach(@NonNull View view) {
+    super.onAttach(view);
+    metricsText.setText(metrics.dump());
+  }
+
+  @Override public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
+    super.onCreateOptionsMenu(menu, inflater);
+    inflater.inflate(R.menu.menu_metrics, menu);
+  }
+
+  @Override public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+    switch (item.getItemId()) {
+      case R.id.refresh_metrics:
+        metricsText.setText(metrics.dump());
+        return true;
+      case R.id.share_metrics:
+        Intent intent = new Intent(Intent.ACTION_SEND)
+            .setType("text/plain")
+            .putExtra(Intent.EXTRA_SUBJECT, title)
+            .putExtra(Intent.EXTRA_TEXT, metrics.dump());
+        startActivity(Intent.createChooser(intent, title));
+        return true;
+      default:
+        return super.onOptionsItemSelected(item);
+    }
+  }
+}
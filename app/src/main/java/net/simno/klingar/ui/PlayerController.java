@@ -30,6 +30,7 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.ActionBar;
@@ -42,6 +43,8 @@ import com.google.android.gms.cast.framework.CastButtonFactory;
 
 import net.simno.klingar.KlingarApp;
 import net.simno.klingar.R;
+import net.simno.klingar.data.download.DownloadManager;
+import net.simno.klingar.data.model.PlexImage;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.playback.MusicController;
 import net.simno.klingar.playback.QueueManager;
@@ -98,6 +101,7 @@ public class PlayerController extends BaseController implements QueueAdapter.OnT
   @BindString(R.string.description_track) String descTrack;
   @Inject QueueManager queueManager;
   @Inject MusicController musicController;
+  @Inject DownloadManager downloadManager;
   @Inject Rx rx;
   private boolean isSeeking;
   private boolean isQueueVisible;
@@ -176,10 +180,22 @@ public class PlayerController extends BaseController implements QueueAdapter.OnT
     super.onCreateOptionsMenu(menu, inflater);
     inflater.inflate(R.menu.menu_main, menu);
     inflater.inflate(R.menu.menu_player, menu);
+    inflater.inflate(R.menu.menu_download, menu);
     CastButtonFactory.setUpMediaRouteButton(getApplicationContext(), menu,
         R.id.media_route_menu_item);
   }
 
+  @Override public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+    if (item.getItemId() == R.id.download) {
+      disposables.add(queueManager.queue()
+          .firstElement()
+          .subscribe(pair -> downloadManager.download(pair.first), Rx::onError));
+      Toast.makeText(getActivity(), R.string.download_started, Toast.LENGTH_SHORT).show();
+      return true;
+    }
+    return super.onOptionsItemSelected(item);
+  }
+
   @Override public void onPrepareOptionsMenu(@NonNull Menu menu) {
     MenuItem item = menu.findItem(R.id.action_queue_track);
     ImageView actionView = (ImageView) item.getActionView();
@@ -292,7 +308,8 @@ public class PlayerController extends BaseController implements QueueAdapter.OnT
 
     if (getActivity() != null) {
       Glide.with(getActivity())
-          .load(track.thumb())
+          .load(PlexImage.of(track.uri(), track.thumb()))
+          .override(PlexImage.MAX_SIZE)
           .transition(withCrossFade())
           .into(background);
     }
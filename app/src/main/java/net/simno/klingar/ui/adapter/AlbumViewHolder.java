@@ -15,6 +15,7 @@
  */
 package net.simno.klingar.ui.adapter;
 
+import android.graphics.drawable.Drawable;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -22,11 +23,14 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DecodeFormat;
 import com.bumptech.glide.request.RequestOptions;
 
 import net.simno.klingar.R;
 import net.simno.klingar.data.model.Album;
-import net.simno.klingar.util.Urls;
+import net.simno.klingar.data.model.PlexImage;
 
 import butterknife.BindDimen;
 import butterknife.BindView;
@@ -44,13 +48,18 @@ final class AlbumViewHolder extends ClickableViewHolder<Album> {
     super(view, listener);
   }
 
+  /** Also used by {@link ThumbPreloader}, so that preloaded thumbs hit the memory cache. */
+  static RequestBuilder<Drawable> thumbRequest(RequestManager glide, Album album, int size) {
+    return glide.load(PlexImage.of(album.uri(), album.thumb()))
+        .override(size)
+        .format(DecodeFormat.PREFER_RGB_565)
+        .apply(RequestOptions.centerCropTransform());
+  }
+
   @Override void bindModel(@NonNull Album album) {
     title.setText(album.title());
 
-    //noinspection SuspiciousNameCombination
-    Glide.with(itemView.getContext())
-        .load(Urls.addTranscodeParams(album.thumb(), height, height))
-        .apply(RequestOptions.centerCropTransform())
+    thumbRequest(Glide.with(itemView.getContext()), album, height)
         .transition(withCrossFade())
         .into(thumb);
 
@@ -15,6 +15,7 @@
  */
 package net.simno.klingar.ui.adapter;
 
+import android.graphics.drawable.Drawable;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -22,11 +23,14 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DecodeFormat;
 import com.bumptech.glide.request.RequestOptions;
 
 import net.simno.klingar.R;
 import net.simno.klingar.data.model.Artist;
-import net.simno.klingar.util.Urls;
+import net.simno.klingar.data.model.PlexImage;
 
 import butterknife.BindDimen;
 import butterknife.BindView;
@@ -43,13 +47,18 @@ final class ArtistViewHolder extends ClickableViewHolder<Artist> {
     super(view, listener);
   }
 
+  /** Shared with {@link ThumbPreloader}. */
+  static RequestBuilder<Drawable> thumbRequest(RequestManager glide, Artist artist, int size) {
+    return glide.load(PlexImage.of(artist.uri(), artist.thumb()))
+        .override(size)
+        .format(DecodeFormat.PREFER_RGB_565)
+        .apply(RequestOptions.circleCropTransform());
+  }
+
   @Override void bindModel(@NonNull Artist artist) {
     title.setText(artist.title());
 
-    //noinspection SuspiciousNameCombination
-    Glide.with(itemView.getContext())
-        .load(Urls.addTranscodeParams(artist.thumb(), height, height))
-        .apply(RequestOptions.circleCropTransform())
+    thumbRequest(Glide.with(itemView.getContext()), artist, height)
         .transition(withCrossFade())
         .into(thumb);
   }
@@ -120,6 +120,10 @@ public class MusicAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     notifyDataSetChanged();
   }
 
+  public List<PlexItem> getItems() {
+    return items;
+  }
+
   public interface OnPlexItemClickListener {
     void onPlexItemClicked(PlexItem plexItem);
   }
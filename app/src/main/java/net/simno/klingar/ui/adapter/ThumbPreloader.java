@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.ui.adapter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
+
+import net.simno.klingar.data.model.Album;
+import net.simno.klingar.data.model.Artist;
+import net.simno.klingar.data.model.PlexItem;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads album and artist thumbs into the memory cache before their rows are bound. Uses the same
+ * requests as the view holders, so a preloaded thumb is a memory cache hit at bind time.
+ */
+public class ThumbPreloader implements ListPreloader.PreloadModelProvider<PlexItem> {
+
+  /** Number of rows to preload in the scroll direction. */
+  static final int MAX_PRELOAD = 10;
+
+  private final RequestManager glide;
+  private final MusicAdapter adapter;
+  private final int size;
+
+  /**
+   * @param size height of the list rows, the thumbs are square
+   */
+  public ThumbPreloader(RequestManager glide, MusicAdapter adapter, int size) {
+    this.glide = glide;
+    this.adapter = adapter;
+    this.size = size;
+  }
+
+  /** @return a scroll listener that preloads the rows following the visible ones */
+  public RecyclerView.OnScrollListener scrollListener() {
+    return new RecyclerViewPreloader<>(glide, this, new FixedPreloadSizeProvider<>(size, size),
+        MAX_PRELOAD);
+  }
+
+  /** Starts loading the first thumbs of a page that is about to be added to the adapter. */
+  public void warm(List<PlexItem> page) {
+    for (int i = 0; i < page.size() && i < MAX_PRELOAD; ++i) {
+      RequestBuilder<?> request = getPreloadRequestBuilder(page.get(i));
+      if (request != null) {
+        request.preload();
+      }
+    }
+  }
+
+  @NonNull @Override public List<PlexItem> getPreloadItems(int position) {
+    List<PlexItem> items = adapter.getItems();
+    if (position < 0 || position >= items.size()) {
+      return Collections.emptyList();
+    }
+    PlexItem item = items.get(position);
+    if (item instanceof Album || item instanceof Artist) {
+      return Collections.singletonList(item);
+    }
+    return Collections.emptyList();
+  }
+
+  @Nullable @Override public RequestBuilder<?> getPreloadRequestBuilder(@NonNull PlexItem item) {
+    if (item instanceof Album) {
+      return AlbumViewHolder.thumbRequest(glide, (Album) item, size);
+    } else if (item instanceof Artist) {
+      return ArtistViewHolder.thumbRequest(glide, (Artist) item, size);
+    }
+    return null;
+  }
+}
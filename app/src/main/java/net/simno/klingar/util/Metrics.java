@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * In-memory counters and histograms for the things we want to measure on device, e.g. download
+ * throughput or playback start times. Nothing is persisted or sent anywhere.
+ */
+@Singleton
+public class Metrics {
+
+  private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentSkipListMap<>();
+  private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+  @Inject public Metrics() {
+  }
+
+  public void increment(String name) {
+    add(name, 1);
+  }
+
+  public void add(String name, long delta) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      counters.putIfAbsent(name, new AtomicLong());
+      counter = counters.get(name);
+    }
+    counter.addAndGet(delta);
+  }
+
+  public long count(String name) {
+    AtomicLong counter = counters.get(name);
+    return counter != null ? counter.get() : 0;
+  }
+
+  public void record(String name, long value) {
+    histogram(name).record(value);
+  }
+
+  public Histogram histogram(String name) {
+    Histogram histogram = histograms.get(name);
+    if (histogram == null) {
+      histograms.putIfAbsent(name, new Histogram());
+      histogram = histograms.get(name);
+    }
+    return histogram;
+  }
+
+  public String dump() {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+      builder.append(counter.getKey()).append(' ').append(counter.getValue().get()).append('\n');
+    }
+    for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+      builder.append(histogram.getKey()).append(' ').append(histogram.getValue()).append('\n');
+    }
+    return builder.toString();
+  }
+
+  /** Keeps the most recent samples so percentiles follow current conditions. */
+  public static final class Histogram {
+
+    private static final int SAMPLES = 256;
+
+    private final long[] samples = new long[SAMPLES];
+    private long count;
+    private long sum;
+    private long max;
+
+    public synchronized void record(long value) {
+      samples[(int) (count % SAMPLES)] = value;
+      count++;
+      sum += value;
+      max = Math.max(max, value);
+    }
+
+    public synchronized long count() {
+      return count;
+    }
+
+    public synchronized long mean() {
+      return count > 0 ? sum / count : 0;
+    }
+
+    public synchronized long max() {
+      return max;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the percentile of the recent samples, or 0 if nothing has been recorded
+     */
+    public synchronized long percentile(double percentile) {
+      int size = (int) Math.min(count, SAMPLES);
+      if (size == 0) {
+        return 0;
+      }
+      long[] sorted = Arrays.copyOf(samples, size);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * size) - 1;
+      return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    @Override public synchronized String toString() {
+      return String.format(Locale.US, "count=%d mean=%d p50=%d p90=%d p99=%d max=%d",
+          count, mean(), percentile(50), percentile(90), percentile(99), max);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * A bounded thread pool that runs queued work in priority order, so that a backlog of background
+ * requests can not delay the ones the user is waiting for. Records the queue depth and the time
+ * work waited in the queue.
+ */
+public final class PriorityExecutor {
+
+  public enum Priority {
+    PLAYBACK, INTERACTIVE, BACKGROUND
+  }
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private final AtomicLong sequence = new AtomicLong();
+  private final ThreadPoolExecutor executor;
+  private final String name;
+  private final Metrics metrics;
+
+  public PriorityExecutor(String name, int threads, Metrics metrics) {
+    this.name = name;
+    this.metrics = metrics;
+    AtomicInteger count = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  public Scheduler scheduler(Priority priority) {
+    return Schedulers.from(runnable -> execute(runnable, priority));
+  }
+
+  void execute(Runnable runnable, Priority priority) {
+    metrics.record("rx." + name + ".queue_depth", executor.getQueue().size());
+    executor.execute(new Task(runnable, priority, sequence.getAndIncrement()));
+  }
+
+  private final class Task implements Runnable, Comparable<Task> {
+
+    private final Runnable runnable;
+    private final Priority priority;
+    private final long sequence;
+    private final long queuedAt = System.nanoTime();
+
+    Task(Runnable runnable, Priority priority, long sequence) {
+      this.runnable = runnable;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override public void run() {
+      metrics.record("rx." + priority.name().toLowerCase(Locale.US) + ".wait_ms",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt));
+      runnable.run();
+    }
+
+    @Override public int compareTo(@NonNull Task other) {
+      int compare = priority.compareTo(other.priority);
+      return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+    }
+  }
+}
@@ -17,6 +17,8 @@ package net.simno.klingar.util;
 
 import org.reactivestreams.Publisher;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Singleton;
 
 import dagger.Module;
@@ -29,29 +31,41 @@ import io.reactivex.SingleSource;
 import io.reactivex.SingleTransformer;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
 import timber.log.Timber;
 
 public final class Rx {
 
+  static final int PLAYBACK_THREADS = 2;
+  static final int INTERACTIVE_THREADS = 6;
+  private static final int BACKGROUND_THREADS = 2;
+
   private final Scheduler io;
   private final Scheduler ui;
   private final Scheduler newThread;
+  private final Scheduler playback;
+  private final Scheduler interactive;
+  private final Scheduler background;
   private final SingleTransformer singleSchedulers = new SingleTransformer() {
     @Override public SingleSource apply(Single upstream) {
-      return upstream.subscribeOn(io).observeOn(ui);
+      return upstream.subscribeOn(interactive).observeOn(ui);
     }
   };
   private final FlowableTransformer flowableSchedulers = new FlowableTransformer() {
     @Override public Publisher apply(Flowable upstream) {
-      return upstream.subscribeOn(io).observeOn(ui);
+      return upstream.subscribeOn(interactive).observeOn(ui);
     }
   };
 
-  private Rx(Scheduler io, Scheduler ui, Scheduler newThread) {
+  private Rx(Scheduler io, Scheduler ui, Scheduler newThread, Scheduler playback,
+             Scheduler interactive, Scheduler background) {
     this.io = io;
     this.ui = ui;
     this.newThread = newThread;
+    this.playback = playback;
+    this.interactive = interactive;
+    this.background = background;
   }
 
   public static void dispose(Disposable disposable) {
@@ -64,12 +78,23 @@ public final class Rx {
     Timber.e(throwable, "onError");
   }
 
-  private static Rx production() {
-    return new Rx(Schedulers.io(), AndroidSchedulers.mainThread(), Schedulers.newThread());
+  static Rx production(Metrics metrics) {
+    // Each class of work gets its own bounded threads, so that blocked requests of one class can
+    // never hold the threads of another
+    PriorityExecutor playback = new PriorityExecutor("rx-playback", PLAYBACK_THREADS, metrics);
+    PriorityExecutor interactive = new PriorityExecutor("rx-interactive", INTERACTIVE_THREADS,
+        metrics);
+    PriorityExecutor background = new PriorityExecutor("rx-background", BACKGROUND_THREADS,
+        metrics);
+    return new Rx(Schedulers.io(), AndroidSchedulers.mainThread(), Schedulers.newThread(),
+        playback.scheduler(PriorityExecutor.Priority.PLAYBACK),
+        interactive.scheduler(PriorityExecutor.Priority.INTERACTIVE),
+        background.scheduler(PriorityExecutor.Priority.BACKGROUND));
   }
 
   public static Rx test() {
-    return new Rx(Schedulers.trampoline(), Schedulers.trampoline(), Schedulers.trampoline());
+    return new Rx(Schedulers.trampoline(), Schedulers.trampoline(), Schedulers.trampoline(),
+        Schedulers.trampoline(), Schedulers.trampoline(), Schedulers.trampoline());
   }
 
   public <T> FlowableTransformer<T, T> flowableSchedulers() {
@@ -82,18 +107,46 @@ public final class Rx {
     return (SingleTransformer<T, T>) singleSchedulers;
   }
 
+  /**
+   * For {@code retryWhen}, retries after {@code delayMs}, then twice that and so on, and fails with
+   * the last error when the retries are used up. Place it after {@code subscribeOn} so that the
+   * retries run on the same scheduler.
+   */
+  public Function<Flowable<Throwable>, Publisher<?>> retryWithBackoff(int retries, long delayMs) {
+    return errors -> errors.zipWith(Flowable.range(1, retries + 1), Pair::new)
+        .flatMap(pair -> pair.second <= retries
+            ? Flowable.timer(pair.second * delayMs, TimeUnit.MILLISECONDS, background)
+            : Flowable.error(pair.first));
+  }
+
+  /** Unbounded, for long running blocking work like downloads. */
   public Scheduler io() {
     return io;
   }
 
+  /** Requests that playback is waiting for. */
+  public Scheduler playback() {
+    return playback;
+  }
+
+  /** Requests for the screen the user is looking at. */
+  public Scheduler interactive() {
+    return interactive;
+  }
+
+  /** Work nobody is waiting for, like timeline reports. */
+  public Scheduler background() {
+    return background;
+  }
+
   public Scheduler newThread() {
     return newThread;
   }
 
   @Module
   public static class RxModule {
-    @Provides @Singleton Rx provideRx() {
-      return Rx.production();
+    @Provides @Singleton Rx provideRx(Metrics metrics) {
+      return Rx.production(metrics);
     }
   }
 }
@@ -16,7 +16,6 @@
 package net.simno.klingar.util;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
 import okhttp3.HttpUrl;
 
@@ -35,31 +34,43 @@ public final class Urls {
     return builder.build();
   }
 
-  @Nullable public static String getTranscodeUrl(@NonNull HttpUrl url, @Nullable String imageKey) {
-    if (Strings.isBlank(imageKey)) {
-      return null;
-    }
+  /**
+   * @param imageKey path of the image on the server, e.g. /library/metadata/1337/thumb/1500000000
+   * @return url that scales the image on the server to fit within width and height
+   */
+  @NonNull
+  public static HttpUrl getImageTranscodeUrl(@NonNull HttpUrl url, @NonNull String imageKey,
+                                             int width, int height) {
     return url.newBuilder().addPathSegment("photo")
         .addPathSegment(":")
         .addPathSegment("transcode")
         .addQueryParameter("url", imageKey)
-        .build()
-        .toString();
-  }
-
-  @Nullable
-  public static String addTranscodeParams(@Nullable String transcodeUrl, int width, int height) {
-    if (Strings.isBlank(transcodeUrl)) {
-      return null;
-    }
-    HttpUrl parsedUrl = HttpUrl.parse(transcodeUrl);
-    if (parsedUrl == null) {
-      return null;
-    }
-    return parsedUrl.newBuilder()
         .addQueryParameter("width", String.valueOf(width))
         .addQueryParameter("height", String.valueOf(height))
-        .build()
-        .toString();
+        .build();
+  }
+
+  /**
+   * @param key     metadata key of the track, e.g. /library/metadata/1337
+   * @param bitrate target bitrate in kbps
+   * @return url that streams the track through the universal transcoder as mp3
+   */
+  @NonNull
+  public static HttpUrl getAudioTranscodeUrl(@NonNull HttpUrl url, @NonNull String key,
+                                             int bitrate) {
+    return url.newBuilder()
+        .addPathSegment("music")
+        .addPathSegment(":")
+        .addPathSegment("transcode")
+        .addPathSegment("universal")
+        .addPathSegment("start.mp3")
+        .addQueryParameter("path", key)
+        .addQueryParameter("mediaIndex", "0")
+        .addQueryParameter("partIndex", "0")
+        .addQueryParameter("protocol", "http")
+        .addQueryParameter("directPlay", "0")
+        .addQueryParameter("directStream", "0")
+        .addQueryParameter("musicBitrate", String.valueOf(bitrate))
+        .build();
   }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+
+import net.simno.klingar.util.Metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.File;
+
+import static net.simno.klingar.ImageCaches.METRIC_DISK_HIT;
+import static net.simno.klingar.ImageCaches.METRIC_DISK_MISS;
+import static net.simno.klingar.ImageCaches.METRIC_MEMORY_HIT;
+import static net.simno.klingar.ImageCaches.METRIC_MEMORY_MISS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ImageCachesTest {
+
+  @Mock Key mockKey;
+  @Mock Resource<Object> mockResource;
+  @Mock DiskCache mockDiskCache;
+  private Metrics metrics;
+
+  @Before public void setup() {
+    metrics = new Metrics();
+  }
+
+  @Test public void countsMemoryHitsAndMisses() {
+    when(mockResource.getSize()).thenReturn(1);
+    ImageCaches.MemoryCache cache = new ImageCaches.MemoryCache(10, metrics);
+
+    cache.remove(mockKey);
+    cache.put(mockKey, mockResource);
+    cache.remove(mockKey);
+    cache.remove(mockKey);
+
+    assertThat(metrics.count(METRIC_MEMORY_HIT), is(1L));
+    assertThat(metrics.count(METRIC_MEMORY_MISS), is(2L));
+  }
+
+  @Test public void countsDiskHitsAndMisses() {
+    when(mockDiskCache.get(mockKey)).thenReturn(null, new File("image"));
+    DiskCache cache = new ImageCaches.MeteredDiskCache(mockDiskCache, metrics);
+
+    cache.get(mockKey);
+    cache.get(mockKey);
+
+    assertThat(metrics.count(METRIC_DISK_HIT), is(1L));
+    assertThat(metrics.count(METRIC_DISK_MISS), is(1L));
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data;
+
+import net.simno.klingar.util.Metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class ConnectionWarmerTest {
+
+  private final MockWebServer server = new MockWebServer();
+  private long now;
+  private Metrics metrics;
+  private ConnectionWarmer connectionWarmer;
+  private HttpUrl url;
+
+  @Before public void setup() throws IOException {
+    server.start();
+    metrics = new Metrics();
+    connectionWarmer = new ConnectionWarmer(new OkHttpClient(), metrics, () -> now);
+    url = server.url("/library/sections?X-Plex-Token=token");
+  }
+
+  @After public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test public void warm() throws Exception {
+    server.enqueue(new MockResponse());
+    connectionWarmer.warm(url);
+    RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+    assertThat(request.getMethod(), is("HEAD"));
+    assertThat(request.getPath(), is("/identity"));
+  }
+
+  @Test public void recentlyWarmedServerIsSkipped() throws Exception {
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse());
+    connectionWarmer.warm(url);
+    now = ConnectionWarmer.WARM_INTERVAL_MS - 1;
+    connectionWarmer.warm(url);
+    server.takeRequest(5, TimeUnit.SECONDS);
+    assertThat(server.takeRequest(100, TimeUnit.MILLISECONDS), nullValue());
+
+    now = ConnectionWarmer.WARM_INTERVAL_MS;
+    connectionWarmer.rewarm();
+    assertThat(server.takeRequest(5, TimeUnit.SECONDS).getPath(), is("/identity"));
+    assertThat(metrics.count("warm.requests"), is(2L));
+  }
+
+  @Test public void rewarmWithoutServer() {
+    connectionWarmer.rewarm();
+    assertThat(metrics.count("warm.requests"), is(0L));
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import okhttp3.HttpUrl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ServerConnectionsTest {
+
+  private static final HttpUrl REMOTE = HttpUrl.get("https://1-2-3-4.abc.plex.direct:32400");
+  private static final HttpUrl LOCAL = HttpUrl.get("http://192.168.1.2:32400");
+  private ServerConnections serverConnections;
+
+  @Before public void setup() {
+    serverConnections = new ServerConnections();
+  }
+
+  @Test public void rebase() {
+    HttpUrl url = HttpUrl.get("https://1-2-3-4.abc.plex.direct:32400/library/parts/1/file.mp3?a=b");
+    HttpUrl rebased = ServerConnections.rebase(url, LOCAL);
+    assertThat(rebased.toString(), is("http://192.168.1.2:32400/library/parts/1/file.mp3?a=b"));
+  }
+
+  @Test public void alternates() {
+    serverConnections.put(Arrays.asList(REMOTE, LOCAL));
+    HttpUrl url = HttpUrl.get("http://192.168.1.2:32400/library/parts/1/file.mp3");
+    assertThat(serverConnections.alternates(url), is(Collections.singletonList(
+        HttpUrl.get("https://1-2-3-4.abc.plex.direct:32400/library/parts/1/file.mp3"))));
+  }
+
+  @Test public void alternatesSortedByLatency() {
+    HttpUrl relay = HttpUrl.get("https://5-6-7-8.abc.plex.direct:8443");
+    serverConnections.put(Arrays.asList(REMOTE, relay, LOCAL));
+    serverConnections.setLatency(REMOTE, ServerConnections.UNAVAILABLE);
+    serverConnections.setLatency(relay, 200);
+    HttpUrl url = HttpUrl.get("http://192.168.1.2:32400/library/parts/1/file.mp3");
+    assertThat(serverConnections.alternates(url), is(Arrays.asList(
+        HttpUrl.get("https://5-6-7-8.abc.plex.direct:8443/library/parts/1/file.mp3"),
+        HttpUrl.get("https://1-2-3-4.abc.plex.direct:32400/library/parts/1/file.mp3"))));
+  }
+
+  @Test public void fastest() {
+    serverConnections.put(Arrays.asList(REMOTE, LOCAL));
+    HttpUrl url = HttpUrl.get("https://1-2-3-4.abc.plex.direct:32400/library/parts/1/file.mp3");
+    assertThat(serverConnections.fastest(url), is(url));
+
+    serverConnections.setLatency(REMOTE, ServerConnections.UNAVAILABLE);
+    serverConnections.setLatency(LOCAL, 20);
+    assertThat(serverConnections.fastest(url),
+        is(HttpUrl.get("http://192.168.1.2:32400/library/parts/1/file.mp3")));
+  }
+
+  @Test public void alternatesOfUnknownServer() {
+    serverConnections.put(Arrays.asList(REMOTE, LOCAL));
+    HttpUrl url = HttpUrl.get("http://10.0.0.1:32400/library/parts/1/file.mp3");
+    assertThat(serverConnections.alternates(url).isEmpty(), is(true));
+  }
+}
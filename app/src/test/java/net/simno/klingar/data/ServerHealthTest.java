@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data;
+
+import net.simno.klingar.util.Metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ServerHealthTest {
+
+  private static final String HOST = "192.168.1.2";
+  private long now;
+  private ServerHealth serverHealth;
+
+  @Before public void setup() {
+    serverHealth = new ServerHealth(new Metrics(), () -> now);
+  }
+
+  @Test public void opensAfterConsecutiveFailures() {
+    fail(ServerHealth.FAILURE_THRESHOLD - 1);
+    assertThat(serverHealth.allowRequest(HOST), is(true));
+    fail(1);
+    assertThat(serverHealth.allowRequest(HOST), is(false));
+    assertThat(serverHealth.allowRequest("10.0.0.1"), is(true));
+  }
+
+  @Test public void successResetsFailures() {
+    fail(ServerHealth.FAILURE_THRESHOLD - 1);
+    serverHealth.onSuccess(HOST);
+    fail(ServerHealth.FAILURE_THRESHOLD - 1);
+    assertThat(serverHealth.allowRequest(HOST), is(true));
+  }
+
+  @Test public void halfOpenAllowsOneProbe() {
+    fail(ServerHealth.FAILURE_THRESHOLD);
+    now = ServerHealth.MIN_OPEN_MS;
+    assertThat(serverHealth.allowRequest(HOST), is(true));
+    assertThat(serverHealth.allowRequest(HOST), is(false));
+    serverHealth.onSuccess(HOST);
+    assertThat(serverHealth.allowRequest(HOST), is(true));
+  }
+
+  @Test public void failedProbeDoublesOpenPeriod() {
+    fail(ServerHealth.FAILURE_THRESHOLD);
+    now = ServerHealth.MIN_OPEN_MS;
+    serverHealth.allowRequest(HOST);
+    fail(1);
+    now += ServerHealth.MIN_OPEN_MS;
+    assertThat(serverHealth.allowRequest(HOST), is(false));
+    now += ServerHealth.MIN_OPEN_MS;
+    assertThat(serverHealth.allowRequest(HOST), is(true));
+  }
+
+  @Test public void lateFailuresDoNotExtendOpenPeriod() {
+    fail(ServerHealth.FAILURE_THRESHOLD + 2);
+    now = ServerHealth.MIN_OPEN_MS;
+    assertThat(serverHealth.allowRequest(HOST), is(true));
+  }
+
+  @Test public void unavailableHosts() {
+    TestSubscriber<Set<String>> test = serverHealth.unavailableHosts().test();
+    fail(ServerHealth.FAILURE_THRESHOLD);
+    serverHealth.onSuccess(HOST);
+    test.assertValues(Collections.emptySet(), Collections.singleton(HOST),
+        Collections.emptySet());
+  }
+
+  private void fail(int times) {
+    for (int i = 0; i < times; ++i) {
+      serverHealth.onFailure(HOST);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data;
+
+import net.simno.klingar.data.model.ConnectionStatus;
+import net.simno.klingar.util.Metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ServerMonitorTest {
+
+  private final MockWebServer server = new MockWebServer();
+  private final TestScheduler scheduler = new TestScheduler();
+  private ServerConnections serverConnections;
+  private ServerMonitor serverMonitor;
+  private HttpUrl origin;
+
+  @Before public void setup() throws IOException {
+    server.start();
+    origin = ServerConnections.origin(server.url("/"));
+    serverConnections = new ServerConnections();
+    serverConnections.put(Collections.singletonList(server.url("/?X-Plex-Token=token")));
+    serverMonitor = new ServerMonitor(new OkHttpClient(), serverConnections, new Metrics(),
+        scheduler);
+  }
+
+  @After public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test public void idleDoesNotProbe() {
+    serverMonitor.setForeground(false);
+    scheduler.advanceTimeBy(ServerMonitor.BACKGROUND_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    assertThat(server.getRequestCount(), is(0));
+  }
+
+  @Test public void foregroundProbes() throws Exception {
+    server.enqueue(new MockResponse());
+    TestSubscriber<List<ConnectionStatus>> test = serverMonitor.statuses().test();
+    serverMonitor.setForeground(true);
+    scheduler.triggerActions();
+    test.awaitCount(2);
+
+    ConnectionStatus status = test.values().get(1).get(0);
+    assertThat(status.uri(), is(origin));
+    assertThat(status.available(), is(true));
+    assertThat(status.failures(), is(0));
+    assertThat(server.takeRequest().getPath(), is("/identity"));
+  }
+
+  @Test public void failedProbeMarksConnectionUnavailable() {
+    server.enqueue(new MockResponse().setResponseCode(500));
+    TestSubscriber<List<ConnectionStatus>> test = serverMonitor.statuses().test();
+    serverMonitor.setPlaying(true);
+    scheduler.triggerActions();
+    test.awaitCount(2);
+
+    ConnectionStatus status = test.values().get(1).get(0);
+    assertThat(status.available(), is(false));
+    assertThat(status.failures(), is(1));
+  }
+}
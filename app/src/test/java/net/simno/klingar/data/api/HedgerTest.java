@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+import net.simno.klingar.data.ServerConnections;
+import net.simno.klingar.util.Metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+import okhttp3.HttpUrl;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class HedgerTest {
+
+  private static final HttpUrl REMOTE = HttpUrl.get("https://1-2-3-4.abc.plex.direct:32400");
+  private static final HttpUrl LOCAL = HttpUrl.get("http://192.168.1.2:32400");
+
+  private final List<HttpUrl> requested = new ArrayList<>();
+  private final List<PublishSubject<String>> responses = new ArrayList<>();
+  private Metrics metrics;
+  private TestScheduler scheduler;
+  private Hedger hedger;
+
+  @Before public void setup() {
+    ServerConnections serverConnections = new ServerConnections();
+    serverConnections.put(Arrays.asList(REMOTE, LOCAL));
+    metrics = new Metrics();
+    scheduler = new TestScheduler();
+    hedger = new Hedger(serverConnections, metrics, scheduler, Schedulers.trampoline());
+  }
+
+  @Test public void fastResponseIsNotHedged() {
+    TestObserver<String> test = hedge().test();
+    scheduler.advanceTimeBy(100, MILLISECONDS);
+    responses.get(0).onNext("primary");
+    scheduler.advanceTimeBy(Hedger.DEFAULT_DELAY_MS, MILLISECONDS);
+    test.assertValue("primary");
+    assertThat(requested.size(), is(1));
+    assertThat(metrics.histogram(Hedger.latency(Endpoint.SECTIONS)).max(), is(100L));
+  }
+
+  @Test public void slowResponseIsHedgedOnAlternateConnection() {
+    TestObserver<String> test = hedge().test();
+    scheduler.advanceTimeBy(Hedger.DEFAULT_DELAY_MS, MILLISECONDS);
+    assertThat(requested.size(), is(2));
+    assertThat(requested.get(1).host(), is("192.168.1.2"));
+    scheduler.advanceTimeBy(300, MILLISECONDS);
+    responses.get(1).onNext("hedge");
+    test.assertValue("hedge");
+    assertThat(responses.get(0).hasObservers(), is(false));
+    assertThat(metrics.count("hedge.sections.won"), is(1L));
+    assertThat(metrics.histogram(Hedger.latency(Endpoint.SECTIONS)).count(), is(1L));
+    assertThat(metrics.histogram(Hedger.latency(Endpoint.SECTIONS)).max(),
+        is(Hedger.DEFAULT_DELAY_MS + 300));
+  }
+
+  @Test public void failedHedgeDoesNotFailRequest() {
+    TestObserver<String> test = hedge().test();
+    scheduler.advanceTimeBy(Hedger.DEFAULT_DELAY_MS, MILLISECONDS);
+    responses.get(1).onError(new RuntimeException());
+    responses.get(0).onNext("primary");
+    test.assertValue("primary");
+  }
+
+  @Test public void delayFollowsP90() {
+    for (int i = 1; i <= Hedger.MIN_SAMPLES; ++i) {
+      metrics.record(Hedger.latency(Endpoint.SECTIONS), i * 100);
+    }
+    assertThat(hedger.delay(Endpoint.SECTIONS), is(1800L));
+    assertThat(hedger.delay(Endpoint.BROWSE), is(Hedger.DEFAULT_DELAY_MS));
+  }
+
+  private Observable<String> hedge() {
+    HttpUrl url = REMOTE.newBuilder().addPathSegments("library/sections").build();
+    return hedger.hedge(Endpoint.SECTIONS, url, (requestUrl, endpoint) -> {
+      requested.add(requestUrl);
+      PublishSubject<String> response = PublishSubject.create();
+      responses.add(response);
+      return response;
+    });
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class HostGateTest {
+
+  private static final String HOST = "192.168.1.2";
+  private HostGate hostGate;
+  private Call call;
+
+  @Before public void setup() {
+    hostGate = new HostGate(6);
+    call = new OkHttpClient().newCall(new Request.Builder().url("http://" + HOST).build());
+  }
+
+  @Test public void lowerPrioritiesGetFewerConnections() {
+    acquire(RequestPriority.PREFETCH, 2);
+    assertThat(hostGate.tryAcquire(HOST, RequestPriority.PREFETCH), is(false));
+    acquire(RequestPriority.IMAGES, 2);
+    assertThat(hostGate.tryAcquire(HOST, RequestPriority.IMAGES), is(false));
+    acquire(RequestPriority.UI, 2);
+    assertThat(hostGate.tryAcquire(HOST, RequestPriority.UI), is(false));
+    assertThat(hostGate.inFlight(HOST), is(6));
+  }
+
+  @Test public void playbackNeverWaits() {
+    acquire(RequestPriority.UI, 6);
+    assertThat(hostGate.tryAcquire(HOST, RequestPriority.PLAYBACK), is(true));
+  }
+
+  @Test public void hostsAreLimitedSeparately() {
+    acquire(RequestPriority.PREFETCH, 2);
+    assertThat(hostGate.tryAcquire("10.0.0.1", RequestPriority.PREFETCH), is(true));
+  }
+
+  @Test public void releaseFreesConnection() {
+    acquire(RequestPriority.PREFETCH, 2);
+    hostGate.release(HOST);
+    assertThat(hostGate.tryAcquire(HOST, RequestPriority.PREFETCH), is(true));
+  }
+
+  @Test public void waitingRequestStartsWhenReleased() throws Exception {
+    acquire(RequestPriority.UI, 6);
+    Thread waiter = new Thread(() -> {
+      try {
+        hostGate.acquire(HOST, RequestPriority.UI, call);
+      } catch (Exception ignored) {
+        // Interrupted
+      }
+    });
+    waiter.start();
+    while (waiter.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    hostGate.release(HOST);
+    waiter.join();
+    assertThat(hostGate.inFlight(HOST), is(6));
+  }
+
+  @Test public void canceledCallStopsWaiting() throws Exception {
+    acquire(RequestPriority.UI, 6);
+    AtomicBoolean failed = new AtomicBoolean();
+    Thread waiter = new Thread(() -> {
+      try {
+        hostGate.acquire(HOST, RequestPriority.UI, call);
+      } catch (IOException e) {
+        failed.set(true);
+      }
+    });
+    waiter.start();
+    while (waiter.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    call.cancel();
+    waiter.join();
+    assertThat(failed.get(), is(true));
+    assertThat(hostGate.inFlight(HOST), is(6));
+  }
+
+  private void acquire(RequestPriority priority, int count) {
+    for (int i = 0; i < count; ++i) {
+      assertThat(hostGate.tryAcquire(HOST, priority), is(true));
+    }
+  }
+}
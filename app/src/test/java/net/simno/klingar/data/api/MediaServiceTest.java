@@ -17,7 +17,9 @@ package net.simno.klingar.data.api;
 
 import androidx.annotation.NonNull;
 
+import net.simno.klingar.data.ServerConnections;
 import net.simno.klingar.data.api.model.MediaContainer;
+import net.simno.klingar.util.Metrics;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -26,6 +28,8 @@ import java.util.Objects;
 
 import io.reactivex.Observable;
 import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
 import okhttp3.HttpUrl;
 import retrofit2.http.Url;
 
@@ -42,7 +46,8 @@ public class MediaServiceTest {
 
   @Before public void setup() {
     api = new TestApi();
-    media = new MediaService(api);
+    media = new MediaService(api, new Hedger(new ServerConnections(), new Metrics(),
+        new TestScheduler(), Schedulers.trampoline()));
   }
 
   @Test public void sections() {
@@ -54,6 +59,7 @@ public class MediaServiceTest {
     media.albums(URL, "artistKey");
     assertThat(api.actual,
         is("https://plex.tv/library/metadata/artistKey/children?X-Plex-Token=token"));
+    assertThat(api.endpoint, is(Endpoint.ALBUMS));
   }
 
   @Test public void tracks() {
@@ -101,14 +107,17 @@ public class MediaServiceTest {
 
   private static class TestApi implements MediaService.Api {
     private String actual;
+    private Endpoint endpoint;
 
-    @Override public Observable<MediaContainer> get(@Url HttpUrl url) {
+    @Override public Observable<MediaContainer> get(@Url HttpUrl url, Endpoint endpoint) {
       actual = url.toString();
+      this.endpoint = endpoint;
       return Observable.just(new MediaContainer());
     }
 
-    @Override public Single<MediaContainer> post(@Url HttpUrl url) {
+    @Override public Single<MediaContainer> post(@Url HttpUrl url, Endpoint endpoint) {
       actual = url.toString();
+      this.endpoint = endpoint;
       return Single.just(new MediaContainer());
     }
   }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+import net.simno.klingar.util.Metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class NetworkMetricsTest {
+
+  private static final HttpUrl SERVER = HttpUrl.get("http://192.168.1.2:32400");
+
+  private final MockWebServer server = new MockWebServer();
+  private Metrics metrics;
+  private OkHttpClient client;
+
+  @Before public void setup() throws IOException {
+    server.start();
+    metrics = new Metrics();
+    client = new OkHttpClient.Builder()
+        .eventListenerFactory(new NetworkMetrics(metrics, Endpoint.OTHER))
+        .build();
+  }
+
+  @After public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test public void endpointFromTag() {
+    NetworkMetrics networkMetrics = new NetworkMetrics(metrics, Endpoint.STREAM);
+    Request tagged = new Request.Builder()
+        .url(SERVER.resolve("/library/metadata/2/children"))
+        .tag(Endpoint.class, Endpoint.ALBUMS)
+        .build();
+    assertThat(networkMetrics.endpoint(tagged), is(Endpoint.ALBUMS));
+    Request untagged = new Request.Builder()
+        .url(SERVER.resolve("/library/parts/3/file.mp3"))
+        .build();
+    assertThat(networkMetrics.endpoint(untagged), is(Endpoint.STREAM));
+  }
+
+  @Test public void recordsCall() throws IOException {
+    server.enqueue(new MockResponse().setBody("0123456789"));
+    Request request = sections(server.url("/library/sections"));
+    try (Response response = client.newCall(request).execute()) {
+      response.body().string();
+    }
+    assertThat(metrics.histogram("net.sections.ttfb_ms").count(), is(1L));
+    assertThat(metrics.histogram("net.sections.body_ms").count(), is(1L));
+    assertThat(metrics.histogram("net.sections.bytes").max(), is(10L));
+    assertThat(metrics.count("net.sections.failed"), is(0L));
+  }
+
+  @Test public void recordsWarmConnection() throws IOException {
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse());
+    for (int i = 0; i < 2; ++i) {
+      Request request = new Request.Builder()
+          .url(server.url("/identity"))
+          .tag(Endpoint.class, Endpoint.IDENTITY)
+          .build();
+      client.newCall(request).execute().close();
+    }
+    assertThat(metrics.count("net.identity.cold"), is(1L));
+    assertThat(metrics.count("net.identity.warm"), is(1L));
+  }
+
+  @Test public void recordsFailure() {
+    // Nothing listens on port 1
+    Request request = sections(HttpUrl.get("http://localhost:1/library/sections"));
+    try {
+      client.newCall(request).execute().close();
+    } catch (IOException expected) {
+      // Connection refused
+    }
+    assertThat(metrics.count("net.sections.failed"), is(1L));
+  }
+
+  private static Request sections(HttpUrl url) {
+    return new Request.Builder().url(url).tag(Endpoint.class, Endpoint.SECTIONS).build();
+  }
+}
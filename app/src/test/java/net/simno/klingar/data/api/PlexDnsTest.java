@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class PlexDnsTest {
+
+  private final List<InetAddress> addresses = Arrays.asList(
+      address("2001:db8::1"), address("2001:db8::2"), address("10.0.0.1"));
+  private int lookups;
+  private long now;
+  private PlexDns plexDns;
+
+  @Before public void setup() {
+    plexDns = new PlexDns(hostname -> {
+      lookups++;
+      return addresses;
+    }, () -> now);
+  }
+
+  @Test public void decodeIpv4() {
+    InetAddress address = PlexDns.decodePlexDirect("192-168-1-2.0123abcd.plex.direct");
+    assertThat(address.getHostAddress(), is("192.168.1.2"));
+    assertThat(address.getHostName(), is("192-168-1-2.0123abcd.plex.direct"));
+  }
+
+  @Test public void decodeIpv6() {
+    InetAddress address = PlexDns.decodePlexDirect("2001-db8--1.0123abcd.plex.direct");
+    assertThat(address, is(address("2001:db8::1")));
+  }
+
+  @Test public void decodeInvalid() {
+    assertThat(PlexDns.decodePlexDirect("192-168-1-256.0123abcd.plex.direct"), nullValue());
+    assertThat(PlexDns.decodePlexDirect("example.0123abcd.plex.direct"), nullValue());
+    assertThat(PlexDns.decodePlexDirect("192-168-1-2.example.com"), nullValue());
+  }
+
+  @Test public void plexDirectIsNotLookedUp() throws Exception {
+    plexDns.lookup("10-0-0-1.0123abcd.plex.direct");
+    assertThat(lookups, is(0));
+  }
+
+  @Test public void lookupIsCachedUntilTtl() throws Exception {
+    plexDns.lookup("plex.tv");
+    now = PlexDns.TTL_MS - 1;
+    plexDns.lookup("plex.tv");
+    assertThat(lookups, is(1));
+    now = PlexDns.TTL_MS;
+    plexDns.lookup("plex.tv");
+    assertThat(lookups, is(2));
+  }
+
+  @Test public void addressFamiliesAreInterleaved() throws Exception {
+    assertThat(plexDns.lookup("plex.tv"), is(Arrays.asList(
+        address("10.0.0.1"), address("2001:db8::1"), address("2001:db8::2"))));
+  }
+
+  private static InetAddress address(String literal) {
+    try {
+      return InetAddress.getByName(literal);
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.download;
+
+import net.simno.klingar.data.model.Download;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.BufferedSource;
+import okio.Okio;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class DownloaderTest {
+
+  private static final String CONTENT = "0123456789abcdefghij";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  private final MockWebServer server = new MockWebServer();
+  private final Downloader.ProgressListener listener = (bytes, length, newBytes) -> { };
+  private Downloader downloader;
+  private Download download;
+  private HttpUrl url;
+
+  @Before public void setup() throws IOException {
+    server.start();
+    downloader = new Downloader(new OkHttpClient(), folder.getRoot());
+    url = server.url("/track.mp3");
+    download = Download.builder()
+        .id("id")
+        .title("title")
+        .server(server.url("/").toString())
+        .partKey("/track.mp3")
+        .fileName("id")
+        .build();
+  }
+
+  @After public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test public void downloadWholeFile() throws Exception {
+    server.enqueue(new MockResponse().setBody(CONTENT));
+
+    Download completed = downloader.download(download, url, listener, new AtomicBoolean());
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Range"), is(nullValue()));
+    assertThat(completed.completed(), is(true));
+    assertThat(completed.contentLength(), is((long) CONTENT.length()));
+    assertThat(read(downloader.file(download)), is(CONTENT));
+    assertThat(downloader.partFile(download).exists(), is(false));
+  }
+
+  @Test public void resumePartialFile() throws Exception {
+    write(downloader.partFile(download), CONTENT.substring(0, 5));
+    server.enqueue(new MockResponse()
+        .setResponseCode(206)
+        .setHeader("Content-Range", "bytes 5-19/20")
+        .setBody(CONTENT.substring(5)));
+
+    Download completed = downloader.download(download, url, listener, new AtomicBoolean());
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Range"), is("bytes=5-"));
+    assertThat(completed.completed(), is(true));
+    assertThat(read(downloader.file(download)), is(CONTENT));
+  }
+
+  @Test public void restartWhenRangeIsIgnored() throws Exception {
+    write(downloader.partFile(download), "garbage");
+    server.enqueue(new MockResponse().setBody(CONTENT));
+
+    downloader.download(download, url, listener, new AtomicBoolean());
+
+    assertThat(read(downloader.file(download)), is(CONTENT));
+  }
+
+  @Test public void completePartFileIsRenamed() throws Exception {
+    write(downloader.partFile(download), CONTENT);
+    server.enqueue(new MockResponse()
+        .setResponseCode(416)
+        .setHeader("Content-Range", "bytes */20"));
+
+    Download completed = downloader.download(download, url, listener, new AtomicBoolean());
+
+    assertThat(completed.completed(), is(true));
+    assertThat(read(downloader.file(download)), is(CONTENT));
+  }
+
+  @Test public void keepPartFileWhenCanceled() throws Exception {
+    server.enqueue(new MockResponse().setBody(CONTENT));
+
+    boolean interrupted = false;
+    try {
+      downloader.download(download, url, listener, new AtomicBoolean(true));
+    } catch (InterruptedIOException e) {
+      interrupted = true;
+    }
+
+    assertThat(interrupted, is(true));
+
+    assertThat(downloader.file(download).exists(), is(false));
+    assertThat(downloader.partFile(download).exists(), is(true));
+  }
+
+  @Test(expected = IOException.class) public void failOnServerError() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(500));
+    downloader.download(download, url, listener, new AtomicBoolean());
+  }
+
+  private static String read(File file) throws IOException {
+    try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+      return source.readUtf8();
+    }
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Okio.buffer(Okio.sink(file)).writeUtf8(content).close();
+  }
+}
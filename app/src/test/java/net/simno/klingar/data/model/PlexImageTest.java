@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.data.model;
+
+import org.junit.Test;
+
+import okhttp3.HttpUrl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+@SuppressWarnings("ConstantConditions")
+public class PlexImageTest {
+
+  private static final HttpUrl SERVER = HttpUrl.parse("https://plex.tv/");
+
+  @Test public void noImageWithoutKey() {
+    assertThat(PlexImage.of(SERVER, null), is(nullValue()));
+    assertThat(PlexImage.of(SERVER, " "), is(nullValue()));
+  }
+
+  @Test public void roundsUpToBucket() {
+    assertThat(PlexImage.bucket(96, 96), is(128));
+    assertThat(PlexImage.bucket(128, 64), is(128));
+    assertThat(PlexImage.bucket(129, 129), is(256));
+    assertThat(PlexImage.bucket(400, 300), is(512));
+  }
+
+  @Test public void neverRequestsOriginal() {
+    assertThat(PlexImage.bucket(Integer.MIN_VALUE, Integer.MIN_VALUE), is(PlexImage.MAX_SIZE));
+    assertThat(PlexImage.bucket(4000, 3000), is(PlexImage.MAX_SIZE));
+  }
+
+  @Test public void similarSizesShareUrl() {
+    PlexImage image = PlexImage.of(SERVER, "/library/metadata/1337/thumb/1500000000");
+    assertThat(image.url(100, 100), is(image.url(120, 90)));
+    assertThat(image.url(100, 100).toString(), is("https://plex.tv/photo/:/transcode"
+        + "?url=/library/metadata/1337/thumb/1500000000&width=128&height=128"));
+  }
+}
@@ -53,6 +53,9 @@ public class TrackJsonAdapterTest {
         .duration(300)
         .thumb("thumb")
         .source("source")
+        .bitrate(320)
+        .codec("mp3")
+        .container("mp3")
         .uri(HttpUrl.parse("https://plex.tv"))
         .build();
   }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class BufferProfileTest {
+
+  @Test public void balancedOnStableNetwork() {
+    assertThat(BufferProfile.select(false, false), is(BufferProfile.BALANCED));
+  }
+
+  @Test public void deepOnUnstableNetwork() {
+    assertThat(BufferProfile.select(false, true), is(BufferProfile.DEEP));
+  }
+
+  @Test public void lowMemoryWins() {
+    assertThat(BufferProfile.select(true, false), is(BufferProfile.LOW_MEMORY));
+    assertThat(BufferProfile.select(true, true), is(BufferProfile.LOW_MEMORY));
+  }
+}
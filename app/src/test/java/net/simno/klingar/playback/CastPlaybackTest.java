@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import org.junit.Test;
+
+import okhttp3.HttpUrl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class CastPlaybackTest {
+
+  @Test public void serverUriKeepsToken() {
+    HttpUrl source = HttpUrl.get("https://plex.example.com:32400/library/parts/1/file.mp3"
+        + "?X-Plex-Token=token&download=1");
+
+    HttpUrl uri = CastPlayback.serverUri(source);
+
+    assertThat(uri, is(HttpUrl.get("https://plex.example.com:32400/?X-Plex-Token=token")));
+  }
+
+  @Test public void serverUriWithoutToken() {
+    HttpUrl source = HttpUrl.get("http://10.0.0.2:32400/library/parts/1/file.mp3");
+
+    assertThat(CastPlayback.serverUri(source), is(HttpUrl.get("http://10.0.0.2:32400/")));
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import net.simno.klingar.data.model.Track;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.core.Is.is;
+
+public class CastQueueTest {
+
+  @Test public void appendMissingTracks() {
+    List<CastQueue.RemoteItem> remote = Collections.singletonList(new CastQueue.RemoteItem(1, 10));
+
+    CastQueue.Plan plan = CastQueue.plan(remote, 1, tracks(10, 20, 30));
+
+    assertThat(plan.remove.isEmpty(), is(true));
+    assertThat(plan.insert, contains(track(20), track(30)));
+  }
+
+  @Test public void keepUpcomingTracksInOrder() {
+    List<CastQueue.RemoteItem> remote = Arrays.asList(new CastQueue.RemoteItem(1, 10),
+        new CastQueue.RemoteItem(2, 20), new CastQueue.RemoteItem(3, 30));
+
+    CastQueue.Plan plan = CastQueue.plan(remote, 1, tracks(10, 20, 30));
+
+    assertThat(plan.isEmpty(), is(true));
+  }
+
+  @Test public void removePlayedAndOutOfDateTracks() {
+    List<CastQueue.RemoteItem> remote = Arrays.asList(new CastQueue.RemoteItem(1, 10),
+        new CastQueue.RemoteItem(2, 20), new CastQueue.RemoteItem(3, 30),
+        new CastQueue.RemoteItem(4, 40));
+
+    // The receiver moved on to 20 and the local queue was shuffled
+    CastQueue.Plan plan = CastQueue.plan(remote, 2, tracks(20, 40, 50));
+
+    assertThat(plan.remove, contains(1, 3, 4));
+    assertThat(plan.insert, contains(track(40), track(50)));
+  }
+
+  @Test public void noPlanWhenReceiverPlaysAnotherTrack() {
+    List<CastQueue.RemoteItem> remote = Collections.singletonList(new CastQueue.RemoteItem(1, 10));
+
+    assertThat(CastQueue.plan(remote, 1, tracks(20, 30)), is(nullValue()));
+    assertThat(CastQueue.plan(remote, 7, tracks(10, 20)), is(nullValue()));
+  }
+
+  private List<Track> tracks(long... queueItemIds) {
+    Track[] tracks = new Track[queueItemIds.length];
+    for (int i = 0; i < queueItemIds.length; ++i) {
+      tracks[i] = track(queueItemIds[i]);
+    }
+    return Arrays.asList(tracks);
+  }
+
+  private Track track(long queueItemId) {
+    return Track.builder()
+        .queueItemId(queueItemId)
+        .libraryId("libraryId")
+        .key("key")
+        .ratingKey("ratingKey")
+        .parentKey("parentKey")
+        .title("title")
+        .albumTitle("albumTitle")
+        .artistTitle("artistTitle")
+        .index(1)
+        .duration(30000)
+        .thumb("thumb")
+        .source("source")
+        .uri(HttpUrl.get("https://plex.tv"))
+        .build();
+  }
+}
@@ -20,15 +20,15 @@ import android.support.v4.media.session.MediaControllerCompat.Callback;
 import android.support.v4.media.session.MediaControllerCompat.TransportControls;
 import android.support.v4.media.session.PlaybackStateCompat;
 
-import net.simno.klingar.util.Rx;
-
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
-import io.reactivex.Flowable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
 import io.reactivex.subscribers.TestSubscriber;
 
 import static android.support.v4.media.session.PlaybackStateCompat.STATE_BUFFERING;
@@ -37,6 +37,10 @@ import static android.support.v4.media.session.PlaybackStateCompat.STATE_PAUSED;
 import static android.support.v4.media.session.PlaybackStateCompat.STATE_PLAYING;
 import static net.simno.klingar.playback.PlaybackManager.CUSTOM_ACTION_REPEAT;
 import static net.simno.klingar.playback.PlaybackManager.CUSTOM_ACTION_SHUFFLE;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
@@ -50,10 +54,12 @@ public class MusicControllerTest {
   @Mock MediaControllerCompat mockMediaController;
   @Mock TransportControls mockTransportControls;
   @Mock PlaybackStateCompat mockPlaybackState;
+  private TestScheduler scheduler;
   private MusicController musicController;
 
   @Before public void setup() {
-    musicController = new MusicController(seconds(), Rx.test());
+    scheduler = new TestScheduler();
+    musicController = new MusicController(() -> scheduler.now(TimeUnit.MILLISECONDS), scheduler);
     musicController.setMediaController(mockMediaController);
     when(mockMediaController.getTransportControls()).thenReturn(mockTransportControls);
     when(mockMediaController.getPlaybackState()).thenReturn(mockPlaybackState);
@@ -139,22 +145,42 @@ public class MusicControllerTest {
 
   @Test public void startProgressWhenPlaying() {
     when(mockPlaybackState.getState()).thenReturn(STATE_PLAYING);
+    when(mockPlaybackState.getPosition()).thenReturn(500L);
+    when(mockPlaybackState.getLastPositionUpdateTime()).thenReturn(0L);
+    when(mockPlaybackState.getPlaybackSpeed()).thenReturn(1f);
+    registerPlaybackState();
 
-    doAnswer(mock -> {
-      Callback callback = mock.getArgument(0);
-      callback.onPlaybackStateChanged(mockPlaybackState);
-      return callback;
-    }).when(mockMediaController).registerCallback(any(Callback.class));
+    TestSubscriber<Long> test = musicController.progress().test();
+    musicController.setMediaController(mockMediaController);
+    scheduler.advanceTimeBy(2600, TimeUnit.MILLISECONDS);
 
-    TestSubscriber<Long> test = musicController.progress().take(5).test();
+    // Ticks are aligned to whole seconds of the track, not to when playback started
+    test.assertValues(500L, 1000L, 2000L, 3000L);
+  }
 
+  @Test public void progressDoesNotTickWhenPaused() {
+    when(mockPlaybackState.getState()).thenReturn(STATE_PAUSED);
+    when(mockPlaybackState.getPosition()).thenReturn(4200L);
+    when(mockPlaybackState.getPlaybackSpeed()).thenReturn(0f);
+    registerPlaybackState();
+
+    TestSubscriber<Long> test = musicController.progress().test();
     musicController.setMediaController(mockMediaController);
+    scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
 
-    test.awaitTerminalEvent();
-    test.assertValues(0L, 0L, 1000L, 2000L, 3000L);
+    test.assertValues(4200L);
   }
 
-  private Flowable<Long> seconds() {
-    return Flowable.rangeLong(0, 3).onBackpressureBuffer();
+  @Test public void subscribersWithSameIntervalShareClock() {
+    assertThat(musicController.progress(10000), is(sameInstance(musicController.progress(10000))));
+    assertThat(musicController.progress(10000), is(not(sameInstance(musicController.progress()))));
+  }
+
+  private void registerPlaybackState() {
+    doAnswer(mock -> {
+      Callback callback = mock.getArgument(0);
+      callback.onPlaybackStateChanged(mockPlaybackState);
+      return callback;
+    }).when(mockMediaController).registerCallback(any(Callback.class));
   }
 }
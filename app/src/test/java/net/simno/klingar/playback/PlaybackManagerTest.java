@@ -21,10 +21,12 @@ import android.support.v4.media.session.PlaybackStateCompat;
 import net.simno.klingar.AndroidClock;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.playback.PlaybackManager.PlaybackServiceCallback;
+import net.simno.klingar.util.Metrics;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -33,9 +35,12 @@ import okhttp3.HttpUrl;
 import static net.simno.klingar.playback.PlaybackManager.CUSTOM_ACTION_REPEAT;
 import static net.simno.klingar.playback.PlaybackManager.CUSTOM_ACTION_SHUFFLE;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsSame.sameInstance;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -51,12 +56,14 @@ public class PlaybackManagerTest {
   @Mock PlaybackServiceCallback mockServiceCallback;
   @Mock Playback mockPlayback;
   @Mock AndroidClock mockAndroidClock;
+  private Metrics metrics;
   private PlaybackManager playbackManager;
   private MediaSessionCompat.Callback mediaSessionCallback;
 
   @Before public void setup() {
+    metrics = new Metrics();
     playbackManager = new PlaybackManager(mockQueueManager, mockServiceCallback, mockAndroidClock,
-        mockPlayback);
+        metrics, mockPlayback);
     mediaSessionCallback = playbackManager.getMediaSessionCallback();
   }
 
@@ -70,6 +77,18 @@ public class PlaybackManagerTest {
     verify(mockServiceCallback, times(1)).onPlaybackStart();
   }
 
+  @Test public void onPlayEventAdoptsReconciledTrack() {
+    Track provisional = createTrack().toBuilder().queueItemId(-1).build();
+    Track reconciled = createTrack();
+    when(mockPlayback.getCurrentTrack()).thenReturn(provisional);
+    when(mockQueueManager.currentTrack()).thenReturn(reconciled);
+
+    mediaSessionCallback.onPlay();
+
+    verify(mockPlayback, times(1)).setCurrentTrack(reconciled);
+    verify(mockPlayback, times(1)).play(reconciled);
+  }
+
   @Test public void onSkipToQueueItemEvent() {
     Track track = createTrack();
     when(mockQueueManager.currentTrack()).thenReturn(track);
@@ -185,6 +204,127 @@ public class PlaybackManagerTest {
     assertThat(newActualPlayback, sameInstance(newExpectedPlayback));
   }
 
+  @Test public void handoverKeepsPlayingUntilReady() {
+    Track track = createTrack();
+    when(mockPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PLAYING);
+    when(mockPlayback.getCurrentTrack()).thenReturn(track);
+    when(mockPlayback.getCurrentStreamPosition()).thenReturn(5000);
+    when(mockQueueManager.currentTrack()).thenReturn(track);
+    when(mockAndroidClock.elapsedRealTime()).thenReturn(1000L, 1300L);
+    Playback newPlayback = mock(Playback.class);
+    ArgumentCaptor<Runnable> onReady = ArgumentCaptor.forClass(Runnable.class);
+
+    playbackManager.handoverToPlayback(newPlayback);
+
+    verify(newPlayback, times(1)).prepare(eq(track), eq(5000), onReady.capture(),
+        any(Runnable.class));
+    verify(mockPlayback, never()).stop(anyBoolean());
+    assertThat(playbackManager.getPlayback(), sameInstance(mockPlayback));
+
+    onReady.getValue().run();
+
+    verify(mockPlayback, times(1)).stop(false);
+    verify(newPlayback, times(1)).play(track);
+    assertThat(playbackManager.getPlayback(), sameInstance(newPlayback));
+    assertThat(metrics.histogram("handover.prepare_ms").max(), is(300L));
+  }
+
+  @Test public void handoverRecordsGap() {
+    Track track = createTrack();
+    when(mockPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PLAYING);
+    when(mockPlayback.getCurrentTrack()).thenReturn(track);
+    when(mockQueueManager.currentTrack()).thenReturn(track);
+    when(mockAndroidClock.elapsedRealTime()).thenReturn(1000L, 1300L, 1300L, 1350L);
+    Playback newPlayback = mock(Playback.class);
+    when(newPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PLAYING);
+    ArgumentCaptor<Runnable> onReady = ArgumentCaptor.forClass(Runnable.class);
+
+    playbackManager.handoverToPlayback(newPlayback);
+    verify(newPlayback).prepare(eq(track), anyInt(), onReady.capture(), any(Runnable.class));
+    onReady.getValue().run();
+    playbackManager.onPlaybackStatusChanged();
+
+    assertThat(metrics.histogram("handover.gap_ms").max(), is(50L));
+  }
+
+  @Test public void handoverPausedBeforeReadyRecordsNoGap() {
+    Track track = createTrack();
+    when(mockPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PLAYING,
+        PlaybackStateCompat.STATE_PAUSED);
+    when(mockPlayback.getCurrentTrack()).thenReturn(track);
+    Playback newPlayback = mock(Playback.class);
+    when(newPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PLAYING);
+    ArgumentCaptor<Runnable> onReady = ArgumentCaptor.forClass(Runnable.class);
+
+    playbackManager.handoverToPlayback(newPlayback);
+    verify(newPlayback).prepare(eq(track), anyInt(), onReady.capture(), any(Runnable.class));
+    onReady.getValue().run();
+    playbackManager.onPlaybackStatusChanged();
+
+    verify(newPlayback, never()).play(any(Track.class));
+    assertThat(metrics.histogram("handover.gap_ms").count(), is(0L));
+  }
+
+  @Test public void handoverWhenNotPlayingSwitchesRightAway() {
+    when(mockPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PAUSED);
+    Playback newPlayback = mock(Playback.class);
+
+    playbackManager.handoverToPlayback(newPlayback);
+
+    verify(newPlayback, never()).prepare(any(Track.class), anyInt(), any(Runnable.class),
+        any(Runnable.class));
+    verify(mockPlayback, times(1)).stop(false);
+    assertThat(playbackManager.getPlayback(), sameInstance(newPlayback));
+  }
+
+  @Test public void stopAbortsHandover() {
+    when(mockPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PLAYING);
+    when(mockPlayback.getCurrentTrack()).thenReturn(createTrack());
+    Playback newPlayback = mock(Playback.class);
+
+    playbackManager.handoverToPlayback(newPlayback);
+    mediaSessionCallback.onStop();
+
+    verify(newPlayback, times(1)).stop(false);
+    assertThat(playbackManager.getPlayback(), sameInstance(mockPlayback));
+  }
+
+  @Test public void handoverTargetFailingAbortsHandover() {
+    Track track = createTrack();
+    when(mockPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PLAYING);
+    when(mockPlayback.getCurrentTrack()).thenReturn(track);
+    Playback newPlayback = mock(Playback.class);
+    ArgumentCaptor<Runnable> onError = ArgumentCaptor.forClass(Runnable.class);
+
+    playbackManager.handoverToPlayback(newPlayback);
+    verify(newPlayback).prepare(eq(track), anyInt(), any(Runnable.class), onError.capture());
+    onError.getValue().run();
+
+    verify(newPlayback, times(1)).stop(false);
+    verify(mockPlayback, never()).stop(anyBoolean());
+    assertThat(playbackManager.getPlayback(), sameInstance(mockPlayback));
+    assertThat(playbackManager.finishHandover(), is(false));
+    assertThat(metrics.count("handover.failed"), is(1L));
+  }
+
+  @Test public void ignoreCallbacksFromHandoverTarget() {
+    Track track = createTrack();
+    when(mockPlayback.getState()).thenReturn(PlaybackStateCompat.STATE_PLAYING);
+    when(mockPlayback.getCurrentTrack()).thenReturn(track);
+    Playback newPlayback = mock(Playback.class);
+    ArgumentCaptor<Playback.Callback> callback = ArgumentCaptor.forClass(Playback.Callback.class);
+
+    playbackManager.handoverToPlayback(newPlayback);
+    verify(newPlayback).setCallback(callback.capture());
+    callback.getValue().onCompletion();
+    callback.getValue().setCurrentTrack(track);
+    callback.getValue().onPlaybackStatusChanged();
+
+    verifyNoInteractions(mockQueueManager);
+    verifyNoInteractions(mockServiceCallback);
+    assertThat(playbackManager.getPlayback(), sameInstance(mockPlayback));
+  }
+
   private Track createTrack() {
     return Track.builder()
         .queueItemId(100)
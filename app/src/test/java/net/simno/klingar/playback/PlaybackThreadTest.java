@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import net.simno.klingar.util.Metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class PlaybackThreadTest {
+
+  private final Metrics metrics = new Metrics();
+  private long now;
+  private final PlaybackThread.MessageTimer timer =
+      new PlaybackThread.MessageTimer(metrics, () -> now);
+
+  @Test public void recordMessageDuration() {
+    now = 100;
+    timer.println(">>>>> Dispatching to Handler (android.os.Handler) {1} null: 1");
+    now = 112;
+    timer.println("<<<<< Finished to Handler (android.os.Handler) {1} null");
+
+    assertThat(metrics.histogram(PlaybackThread.METRIC).count(), is(1L));
+    assertThat(metrics.histogram(PlaybackThread.METRIC).max(), is(12L));
+  }
+
+  @Test public void ignoreFinishedWithoutDispatching() {
+    timer.println("<<<<< Finished to Handler (android.os.Handler) {1} null");
+
+    assertThat(metrics.histogram(PlaybackThread.METRIC).count(), is(0L));
+  }
+}
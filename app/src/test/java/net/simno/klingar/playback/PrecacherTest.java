@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import net.simno.klingar.data.model.Track;
+
+import org.hamcrest.collection.IsEmptyCollection;
+import org.hamcrest.collection.IsIterableContainingInOrder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PrecacherTest {
+
+  private final List<Track> queue = Arrays.asList(
+      createTrack(100),
+      createTrack(200),
+      createTrack(300),
+      createTrack(400));
+
+  @Test public void windowContainsNextTracks() {
+    assertThat(Precacher.window(queue, 0, 2),
+        IsIterableContainingInOrder.contains(queue.get(1), queue.get(2)));
+  }
+
+  @Test public void windowStopsAtEndOfQueue() {
+    assertThat(Precacher.window(queue, 2, 2),
+        IsIterableContainingInOrder.contains(queue.get(3)));
+  }
+
+  @Test public void windowIsEmptyForLastTrack() {
+    assertThat(Precacher.window(queue, 3, 2), IsEmptyCollection.empty());
+  }
+
+  private Track createTrack(int index) {
+    return Track.builder()
+        .queueItemId(index * 10)
+        .libraryId("libraryId")
+        .key("key")
+        .ratingKey("ratingKey")
+        .parentKey("parentKey")
+        .title("title")
+        .albumTitle("albumTitle")
+        .artistTitle("artistTitle")
+        .index(index)
+        .duration(30000)
+        .thumb("thumb")
+        .source("source" + index)
+        .uri(HttpUrl.parse("https://plex.tv"))
+        .build();
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ProfileLoadControlTest {
+
+  /** Between the minimum buffer of BALANCED and that of DEEP. */
+  private static final long BUFFERED_US = 40_000_000;
+
+  @Test public void newProfileTakesEffectOnPrepare() {
+    ProfileLoadControl loadControl = new ProfileLoadControl(BufferProfile.BALANCED);
+    prepare(loadControl);
+    assertThat(loadControl.shouldContinueLoading(BUFFERED_US, 1f), is(false));
+
+    loadControl.setProfile(BufferProfile.DEEP);
+    assertThat(loadControl.shouldContinueLoading(BUFFERED_US, 1f), is(false));
+
+    prepare(loadControl);
+    assertThat(loadControl.shouldContinueLoading(BUFFERED_US, 1f), is(true));
+  }
+
+  private void prepare(ProfileLoadControl loadControl) {
+    loadControl.onPrepared();
+    loadControl.onTracksSelected(new Renderer[0], TrackGroupArray.EMPTY,
+        new TrackSelectionArray());
+  }
+}
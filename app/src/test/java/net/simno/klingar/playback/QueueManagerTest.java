@@ -15,6 +15,7 @@
  */
 package net.simno.klingar.playback;
 
+import net.simno.klingar.data.model.PlexItem;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.util.Pair;
 
@@ -24,8 +25,14 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.subscribers.TestSubscriber;
 import okhttp3.HttpUrl;
@@ -222,6 +229,179 @@ public class QueueManagerTest {
     assertThat(queueManager.currentTrack(), is(queue.get(0)));
   }
 
+  @Test public void provisionalQueueFromLoadedAlbum() {
+    Track otherAlbum = createTrack(250).toBuilder().ratingKey("other").parentKey("other").build();
+    List<PlexItem> items = Arrays.asList(createTrack(300, "3"), otherAlbum, createTrack(100, "1"),
+        createTrack(200, "2"));
+
+    List<Track> provisional = QueueManager.provisionalQueue(createTrack(200, "2"), items);
+
+    assertThat(provisional.size(), is(3));
+    assertThat(provisional.get(0).ratingKey(), is("1"));
+    assertThat(provisional.get(0).queueItemId(), is(-1L));
+    assertThat(provisional.get(1).ratingKey(), is("2"));
+    assertThat(provisional.get(1).queueItemId(), is(-2L));
+    assertThat(provisional.get(2).ratingKey(), is("3"));
+    assertThat(provisional.get(2).isProvisional(), is(true));
+  }
+
+  @Test public void reconcileProvisionalQueue() {
+    List<PlexItem> items = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"),
+        createTrack(300, "3"));
+    long token = queueManager.setProvisionalQueue(createTrack(200, "2"), items);
+    assertThat(queueManager.currentTrack().queueItemId(), is(-2L));
+
+    List<Track> serverQueue = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"),
+        createTrack(300, "3"));
+    queueManager.reconcileQueue(token, serverQueue, 2000);
+
+    assertThat(queueManager.currentTrack(), is(serverQueue.get(1)));
+    queueManager.next();
+    assertThat(queueManager.currentTrack(), is(serverQueue.get(2)));
+  }
+
+  @Test public void reconcileAfterSkippingInProvisionalQueue() {
+    List<PlexItem> items = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    long token = queueManager.setProvisionalQueue(createTrack(200, "2"), items);
+    queueManager.previous();
+
+    List<Track> serverQueue = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    queueManager.reconcileQueue(token, serverQueue, 2000);
+
+    assertThat(queueManager.currentTrack(), is(serverQueue.get(0)));
+  }
+
+  @Test public void ignoreReconcileWhenAnotherTrackWasStarted() {
+    List<PlexItem> items = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    long token = queueManager.setProvisionalQueue(createTrack(200, "2"), items);
+    queueManager.setProvisionalQueue(createTrack(100, "9"),
+        Collections.singletonList(createTrack(100, "9")));
+
+    List<Track> serverQueue = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    queueManager.reconcileQueue(token, serverQueue, 2000);
+
+    assertThat(queueManager.currentTrack().ratingKey(), is("9"));
+    assertThat(queueManager.currentTrack().isProvisional(), is(true));
+  }
+
+  @Test public void ignoreReconcileOfEarlierTapInSameItems() {
+    List<PlexItem> items = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"),
+        createTrack(300, "3"));
+    long first = queueManager.setProvisionalQueue(createTrack(100, "1"), items);
+    long second = queueManager.setProvisionalQueue(createTrack(300, "3"), items);
+
+    List<Track> firstQueue = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"),
+        createTrack(300, "3"));
+    queueManager.reconcileQueue(first, firstQueue, 1000);
+    assertThat(queueManager.currentTrack().isProvisional(), is(true));
+
+    List<Track> secondQueue = Arrays.asList(createTrack(400, "1"), createTrack(500, "2"),
+        createTrack(600, "3"));
+    queueManager.reconcileQueue(second, secondQueue, 6000);
+    assertThat(queueManager.currentTrack(), is(secondQueue.get(2)));
+  }
+
+  @Test public void ignoreReconcileWhenQueueIsNotProvisional() {
+    List<Track> serverQueue = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    queueManager.reconcileQueue(1, serverQueue, 2000);
+
+    assertThat(queueManager.currentTrack(), is(queue.get(0)));
+  }
+
+  @Test public void resolveProvisionalIdsAfterReconcile() {
+    List<PlexItem> items = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    long token = queueManager.setProvisionalQueue(createTrack(100, "1"), items);
+
+    List<Track> serverQueue = Arrays.asList(createTrack(300, "1"), createTrack(400, "2"));
+    queueManager.reconcileQueue(token, serverQueue, 3000);
+
+    assertThat(queueManager.resolve(-1), is(3000L));
+    assertThat(queueManager.resolve(-2), is(4000L));
+    assertThat(queueManager.find(-2), is(serverQueue.get(1)));
+    assertThat(queueManager.resolve(4000), is(4000L));
+  }
+
+  @Test public void newProvisionalQueueKeepsItsOwnIds() {
+    List<PlexItem> items = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    long token = queueManager.setProvisionalQueue(createTrack(100, "1"), items);
+    queueManager.reconcileQueue(token, Arrays.asList(createTrack(300, "1"),
+        createTrack(400, "2")), 3000);
+
+    queueManager.setProvisionalQueue(createTrack(500, "5"),
+        Collections.singletonList(createTrack(500, "5")));
+
+    assertThat(queueManager.resolve(-1), is(-1L));
+    assertThat(queueManager.find(-1).ratingKey(), is("5"));
+    assertThat(queueManager.resolve(-2), is(-2L));
+  }
+
+  @Test public void windowOfUpcomingTracks() {
+    queueManager.setQueuePosition(queue.get(3).queueItemId());
+    assertThat(queueManager.window(3), IsIterableContainingInOrder.contains(
+        queue.get(3), queue.get(4)));
+
+    queueManager.repeat(); // REPEAT_ALL
+    assertThat(queueManager.window(3), IsIterableContainingInOrder.contains(
+        queue.get(3), queue.get(4), queue.get(0)));
+
+    queueManager.repeat(); // REPEAT_ONE
+    assertThat(queueManager.window(3), IsIterableContainingInOrder.contains(queue.get(3)));
+  }
+
+  @Test public void concurrentWritersKeepStateConsistent() throws Exception {
+    List<Pair<List<Track>, Integer>> snapshots = Collections.synchronizedList(new ArrayList<>());
+    queueManager.queue().subscribe(snapshots::add);
+
+    int threads = 8;
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> writers = new ArrayList<>();
+    for (int i = 0; i < threads; ++i) {
+      Random random = new Random(i);
+      writers.add(executor.submit(() -> {
+        start.await();
+        for (int j = 0; j < 2000; ++j) {
+          switch (random.nextInt(5)) {
+            case 0:
+              queueManager.next();
+              break;
+            case 1:
+              queueManager.previous();
+              break;
+            case 2:
+              queueManager.shuffle();
+              break;
+            case 3:
+              queueManager.repeat();
+              break;
+            default:
+              queueManager.setQueuePosition(queue.get(random.nextInt(queue.size())).queueItemId());
+          }
+          assertThat(queue.contains(queueManager.currentTrack()), is(true));
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> writer : writers) {
+      writer.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    for (Pair<List<Track>, Integer> snapshot : snapshots) {
+      assertThat(snapshot.first.size(), is(queue.size()));
+      assertThat(snapshot.first.containsAll(queue), is(true));
+      assertThat(snapshot.second < snapshot.first.size(), is(true));
+    }
+    // The last emission is never older than the final state
+    Pair<List<Track>, Integer> last = snapshots.get(snapshots.size() - 1);
+    assertThat(last.first.get(last.second), is(queueManager.currentTrack()));
+  }
+
+  private Track createTrack(int index, String ratingKey) {
+    return createTrack(index).toBuilder().ratingKey(ratingKey).build();
+  }
+
   private Track createTrack(int index) {
     return Track.builder()
         .queueItemId(index * 10)
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import net.simno.klingar.util.Metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class StartupTimerTest {
+
+  private final Metrics metrics = new Metrics();
+  private long now;
+  private StartupTimer startupTimer;
+
+  @Before public void setup() {
+    startupTimer = new StartupTimer(() -> now, metrics);
+  }
+
+  @Test public void recordStages() {
+    startupTimer.start();
+    now = 100;
+    startupTimer.mark(StartupTimer.QUEUE);
+    now = 150;
+    startupTimer.mark(StartupTimer.CONNECT);
+    now = 400;
+    startupTimer.mark(StartupTimer.AUDIBLE);
+
+    assertThat(metrics.histogram("startup.queue_ms").max(), is(100L));
+    assertThat(metrics.histogram("startup.connect_ms").max(), is(50L));
+    assertThat(metrics.histogram("startup.audible_ms").max(), is(250L));
+    assertThat(metrics.histogram("startup.total_ms").max(), is(400L));
+  }
+
+  @Test public void recordStageOnce() {
+    startupTimer.start();
+    startupTimer.mark(StartupTimer.FIRST_BYTE);
+    startupTimer.mark(StartupTimer.FIRST_BYTE);
+
+    assertThat(metrics.histogram("startup.first_byte_ms").count(), is(1L));
+  }
+
+  @Test public void ignoreStagesWhenNotStarted() {
+    startupTimer.mark(StartupTimer.CONNECT);
+    startupTimer.start();
+    startupTimer.cancel();
+    startupTimer.mark(StartupTimer.AUDIBLE);
+
+    assertThat(metrics.histogram("startup.connect_ms").count(), is(0L));
+    assertThat(metrics.histogram("startup.total_ms").count(), is(0L));
+  }
+
+  @Test public void stopAfterAudible() {
+    startupTimer.start();
+    startupTimer.mark(StartupTimer.AUDIBLE);
+    startupTimer.mark(StartupTimer.DECODER);
+
+    assertThat(metrics.histogram("startup.decoder_ms").count(), is(0L));
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import org.junit.Test;
+
+import static net.simno.klingar.playback.StreamSelector.DIRECT_PLAY;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class StreamSelectorTest {
+
+  @Test public void directPlayWhenBitrateIsUnknown() {
+    assertThat(StreamSelector.selectBitrate(0, 50_000), is(DIRECT_PLAY));
+  }
+
+  @Test public void directPlayWhenBandwidthIsEnough() {
+    assertThat(StreamSelector.selectBitrate(1000, 10_000_000), is(DIRECT_PLAY));
+  }
+
+  @Test public void transcodeToBitrateThatFits() {
+    assertThat(StreamSelector.selectBitrate(1000, 300_000), is(192));
+  }
+
+  @Test public void transcodeToLowestBitrateOnSlowNetwork() {
+    assertThat(StreamSelector.selectBitrate(1000, 10_000), is(64));
+  }
+
+  @Test public void neverTranscodeToHigherBitrate() {
+    assertThat(StreamSelector.selectBitrate(160, 100_000), is(64));
+    assertThat(StreamSelector.selectBitrate(64, 10_000), is(DIRECT_PLAY));
+  }
+
+  @Test public void transcodeUnsupportedFormat() {
+    assertThat(StreamSelector.canPlayDirectly("alac", "mp4"), is(false));
+    assertThat(StreamSelector.canPlayDirectly("flac", "flac"), is(false));
+    assertThat(StreamSelector.selectBitrate(Integer.MAX_VALUE, 10_000_000), is(320));
+  }
+
+  @Test public void directPlaySupportedOrUnknownFormat() {
+    assertThat(StreamSelector.canPlayDirectly("MP3", "mp3"), is(true));
+    assertThat(StreamSelector.canPlayDirectly("flac", "ogg"), is(true));
+    assertThat(StreamSelector.canPlayDirectly(null, null), is(true));
+  }
+}
@@ -19,6 +19,7 @@ import android.support.v4.media.session.PlaybackStateCompat;
 
 import androidx.annotation.NonNull;
 
+import net.simno.klingar.data.Prefs;
 import net.simno.klingar.data.api.MediaService;
 import net.simno.klingar.data.model.Track;
 import net.simno.klingar.util.Pair;
@@ -34,14 +35,24 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.CompletableSubject;
 import okhttp3.HttpUrl;
 
+import static net.simno.klingar.playback.TimelineManager.PROGRESS_INTERVAL_MS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -55,12 +66,15 @@ public class TimelineManagerTest {
   @Mock MusicController mockMusicController;
   @Mock QueueManager mockQueueManager;
   @Mock MediaService mockMedia;
+  @Mock Prefs mockPrefs;
+  private TestScheduler retryScheduler;
   private TimelineManager timelineManager;
 
   @Before public void setup() {
+    retryScheduler = new TestScheduler();
     timelineManager = new TimelineManager(mockMusicController, mockQueueManager, mockMedia,
-        Rx.test());
-    when(mockMusicController.progress()).thenReturn(testProgress());
+        mockPrefs, Rx.test(), retryScheduler);
+    when(mockMusicController.progress(PROGRESS_INTERVAL_MS)).thenReturn(testProgress());
     when(mockMusicController.state()).thenReturn(testState());
     when(mockQueueManager.queue()).thenReturn(testQueue());
   }
@@ -85,7 +99,7 @@ public class TimelineManagerTest {
         .timeline(TEST_URL, 100, "key", "ratingKey", "playing", 35000, 30000);
   }
 
-  @Test public void keepSendingUpdatesAfterTimelineError() {
+  @Test public void newReportsWaitForRetryAfterTimelineError() {
     when(mockMedia.timeline(any(HttpUrl.class), anyLong(), anyString(), anyString(), anyString(),
         anyLong(), anyLong()))
         .thenReturn(Completable.complete())
@@ -94,9 +108,113 @@ public class TimelineManagerTest {
         .thenReturn(Completable.complete());
 
     timelineManager.start();
+    verifyTimelineCalls(2);
 
-    verify(mockMedia, times(4)).timeline(any(HttpUrl.class), anyLong(), anyString(), anyString(),
-        anyString(), anyLong(), anyLong());
+    retryScheduler.advanceTimeBy(TimelineManager.MIN_BACKOFF_MS, TimeUnit.MILLISECONDS);
+    verifyTimelineCalls(3);
+    retryScheduler.advanceTimeBy(2 * TimelineManager.MIN_BACKOFF_MS, TimeUnit.MILLISECONDS);
+    verifyTimelineCalls(4);
+    verify(mockMedia, times(2))
+        .timeline(TEST_URL, 100, "key", "ratingKey", "playing", 35000, 30000);
+    assertThat(timelineManager.pending(), is(0));
+  }
+
+  @Test public void sendOnlyLatestReportWhileRequestIsInFlight() {
+    PublishProcessor<Long> progress = PublishProcessor.create();
+    CompletableSubject inFlight = CompletableSubject.create();
+    when(mockMusicController.progress(PROGRESS_INTERVAL_MS)).thenReturn(progress);
+    when(mockMedia.timeline(any(HttpUrl.class), anyLong(), anyString(), anyString(), anyString(),
+        anyLong(), anyLong()))
+        .thenReturn(inFlight)
+        .thenReturn(Completable.complete());
+
+    timelineManager.start();
+    progress.onNext(0L);
+    progress.onNext(10000L);
+    progress.onNext(20000L);
+    assertThat(timelineManager.pending(), is(1));
+
+    inFlight.onComplete();
+
+    verify(mockMedia, never())
+        .timeline(TEST_URL, 100, "key", "ratingKey", "playing", 35000, 10000);
+    verify(mockMedia, times(1))
+        .timeline(TEST_URL, 100, "key", "ratingKey", "playing", 35000, 20000);
+    assertThat(timelineManager.pending(), is(0));
+  }
+
+  @Test public void retryFailedReportWithBackoff() {
+    when(mockMusicController.progress(PROGRESS_INTERVAL_MS)).thenReturn(Flowable.just(0L));
+    when(mockMedia.timeline(any(HttpUrl.class), anyLong(), anyString(), anyString(), anyString(),
+        anyLong(), anyLong()))
+        .thenReturn(Completable.error(new IOException()))
+        .thenReturn(Completable.error(new IOException()))
+        .thenReturn(Completable.complete());
+
+    timelineManager.start();
+    verify(mockPrefs).putString(eq(TimelineManager.PREF_OUTBOX), contains("\"time\":0"));
+    verifyTimelineCalls(1);
+
+    retryScheduler.advanceTimeBy(TimelineManager.MIN_BACKOFF_MS - 1, TimeUnit.MILLISECONDS);
+    verifyTimelineCalls(1);
+    retryScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+    verifyTimelineCalls(2);
+
+    // Second failure waits twice as long, unless flushed
+    retryScheduler.advanceTimeBy(TimelineManager.MIN_BACKOFF_MS, TimeUnit.MILLISECONDS);
+    verifyTimelineCalls(2);
+    timelineManager.flush();
+    verifyTimelineCalls(3);
+
+    assertThat(timelineManager.pending(), is(0));
+    verify(mockPrefs).remove(TimelineManager.PREF_OUTBOX);
+  }
+
+  @Test public void sendReportsSavedByPreviousSession() {
+    when(mockMusicController.progress(PROGRESS_INTERVAL_MS)).thenReturn(Flowable.never());
+    when(mockPrefs.getString(TimelineManager.PREF_OUTBOX, null)).thenReturn("[{"
+        + "\"uri\":\"https://plex.tv/\",\"queueItemId\":99,\"key\":\"oldKey\","
+        + "\"ratingKey\":\"oldRatingKey\",\"state\":\"paused\",\"duration\":1000,"
+        + "\"time\":500}]");
+    when(mockMedia.timeline(any(HttpUrl.class), anyLong(), anyString(), anyString(), anyString(),
+        anyLong(), anyLong()))
+        .thenReturn(Completable.complete());
+
+    timelineManager.start();
+
+    verify(mockMedia, times(1))
+        .timeline(TEST_URL, 99, "oldKey", "oldRatingKey", "paused", 1000, 500);
+  }
+
+  @Test public void stopDisposesRequestSentAfterEarlierReport() {
+    CompletableSubject inFlight = CompletableSubject.create();
+    when(mockMusicController.progress(PROGRESS_INTERVAL_MS)).thenReturn(Flowable.just(0L));
+    when(mockPrefs.getString(TimelineManager.PREF_OUTBOX, null)).thenReturn("[{"
+        + "\"uri\":\"https://plex.tv/\",\"queueItemId\":99,\"key\":\"oldKey\","
+        + "\"ratingKey\":\"oldRatingKey\",\"state\":\"paused\",\"duration\":1000,"
+        + "\"time\":500}]");
+    when(mockMedia.timeline(any(HttpUrl.class), anyLong(), anyString(), anyString(), anyString(),
+        anyLong(), anyLong()))
+        .thenReturn(Completable.complete())
+        .thenReturn(inFlight);
+
+    timelineManager.start();
+    verifyTimelineCalls(2);
+    assertThat(inFlight.hasObservers(), is(true));
+
+    timelineManager.stop();
+    assertThat(inFlight.hasObservers(), is(false));
+  }
+
+  @Test public void backoffIsCapped() {
+    assertThat(TimelineManager.backoff(1), is(TimelineManager.MIN_BACKOFF_MS));
+    assertThat(TimelineManager.backoff(3), is(4 * TimelineManager.MIN_BACKOFF_MS));
+    assertThat(TimelineManager.backoff(100), is(TimelineManager.MAX_BACKOFF_MS));
+  }
+
+  private void verifyTimelineCalls(int calls) {
+    verify(mockMedia, times(calls)).timeline(any(HttpUrl.class), anyLong(), anyString(),
+        anyString(), anyString(), anyLong(), anyLong());
   }
 
   private Flowable<Pair<List<Track>, Integer>> testQueue() {
@@ -108,8 +226,8 @@ public class TimelineManagerTest {
   }
 
   private Flowable<Long> testProgress() {
-    return Flowable.rangeLong(0, 35)
-        .map(second -> second * 1000)
+    return Flowable.rangeLong(0, 4)
+        .map(tick -> tick * PROGRESS_INTERVAL_MS)
         .onBackpressureBuffer();
   }
 
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.playback;
+
+import net.simno.klingar.data.model.PlexItem;
+import net.simno.klingar.data.model.Track;
+import net.simno.klingar.data.repository.MusicRepository;
+import net.simno.klingar.util.Metrics;
+import net.simno.klingar.util.Pair;
+import net.simno.klingar.util.Rx;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import io.reactivex.Single;
+import okhttp3.HttpUrl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TrackStarterTest {
+
+  @Mock MusicController mockMusicController;
+  @Mock MusicRepository mockMusicRepository;
+  private final Metrics metrics = new Metrics();
+  private long now;
+  private QueueManager queueManager;
+  private StartupTimer startupTimer;
+  private TrackStarter trackStarter;
+
+  @Before public void setup() {
+    queueManager = new QueueManager(new Random());
+    startupTimer = new StartupTimer(() -> now, metrics);
+    trackStarter = new TrackStarter(queueManager, mockMusicController, mockMusicRepository,
+        startupTimer, Rx.test(), 0);
+  }
+
+  @Test public void playProvisionalQueueThenReconcile() {
+    List<PlexItem> items = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    List<Track> serverQueue = Arrays.asList(createTrack(100, "1"), createTrack(200, "2"));
+    when(mockMusicRepository.createPlayQueue(createTrack(200, "2")))
+        .thenReturn(Single.just(new Pair<>(serverQueue, 2000L)));
+
+    trackStarter.play(createTrack(200, "2"), items);
+
+    verify(mockMusicController, times(1)).play();
+    assertThat(queueManager.currentTrack(), is(serverQueue.get(1)));
+  }
+
+  @Test public void cancelStartupWhenQueueCanNotBeCreated() {
+    when(mockMusicRepository.createPlayQueue(createTrack(200, "2")))
+        .thenReturn(Single.error(new IOException()));
+
+    trackStarter.play(createTrack(200, "2"), Collections.singletonList(createTrack(200, "2")));
+    startupTimer.mark(StartupTimer.AUDIBLE);
+
+    assertThat(metrics.histogram("startup.total_ms").count(), is(0L));
+  }
+
+  private Track createTrack(int index, String ratingKey) {
+    return Track.builder()
+        .queueItemId(index * 10)
+        .libraryId("libraryId")
+        .key("key")
+        .ratingKey(ratingKey)
+        .parentKey("parentKey")
+        .title("title")
+        .albumTitle("albumTitle")
+        .artistTitle("artistTitle")
+        .index(index)
+        .duration(30000)
+        .thumb("thumb")
+        .source("source")
+        .uri(HttpUrl.parse("https://plex.tv"))
+        .build();
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class MetricsTest {
+
+  private final Metrics metrics = new Metrics();
+
+  @Test public void countersStartAtZero() {
+    assertThat(metrics.count("counter"), is(0L));
+    metrics.increment("counter");
+    metrics.add("counter", 2);
+    assertThat(metrics.count("counter"), is(3L));
+  }
+
+  @Test public void percentiles() {
+    for (int i = 1; i <= 100; ++i) {
+      metrics.record("histogram", i);
+    }
+    Metrics.Histogram histogram = metrics.histogram("histogram");
+    assertThat(histogram.count(), is(100L));
+    assertThat(histogram.percentile(50), is(50L));
+    assertThat(histogram.percentile(90), is(90L));
+    assertThat(histogram.max(), is(100L));
+  }
+
+  @Test public void percentilesFollowRecentSamples() {
+    for (int i = 0; i < 1000; ++i) {
+      metrics.record("histogram", i < 500 ? 1000 : 1);
+    }
+    assertThat(metrics.histogram("histogram").percentile(99), is(1L));
+  }
+
+  @Test public void emptyHistogram() {
+    assertThat(metrics.histogram("histogram").percentile(90), is(0L));
+  }
+}
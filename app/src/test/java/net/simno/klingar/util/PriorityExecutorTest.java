@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 Simon Norberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.simno.klingar.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class PriorityExecutorTest {
+
+  @Test public void runsQueuedWorkInPriorityOrder() throws Exception {
+    Metrics metrics = new Metrics();
+    PriorityExecutor executor = new PriorityExecutor("test", 1, metrics);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(4);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    // Occupy the only thread so the rest is queued
+    executor.execute(() -> {
+      try {
+        blocked.await();
+      } catch (InterruptedException ignored) {
+        // Done waiting
+      }
+      done.countDown();
+    }, PriorityExecutor.Priority.BACKGROUND);
+    executor.execute(() -> {
+      order.add("background");
+      done.countDown();
+    }, PriorityExecutor.Priority.BACKGROUND);
+    executor.execute(() -> {
+      order.add("interactive");
+      done.countDown();
+    }, PriorityExecutor.Priority.INTERACTIVE);
+    executor.execute(() -> {
+      order.add("playback");
+      done.countDown();
+    }, PriorityExecutor.Priority.PLAYBACK);
+    blocked.countDown();
+
+    assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(order, is(Arrays.asList("playback", "interactive", "background")));
+    assertThat(metrics.histogram("rx.test.queue_depth").max(), is(2L));
+    assertThat(metrics.histogram("rx.playback.wait_ms").count(), is(1L));
+  }
+}
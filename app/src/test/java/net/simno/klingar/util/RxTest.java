@@ -17,6 +17,12 @@ package net.simno.klingar.util;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Single;
 import io.reactivex.disposables.CompositeDisposable;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -42,4 +48,52 @@ public class RxTest {
     Rx.dispose(disposable);
     assertThat(disposable.isDisposed(), is(true));
   }
+
+  @Test public void saturatedInteractiveDoesNotDelayPlayback() throws Exception {
+    Rx rx = Rx.production(new Metrics());
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch played = new CountDownLatch(1);
+    // Like browse requests that hang until they time out, one more than there are threads
+    for (int i = 0; i <= Rx.INTERACTIVE_THREADS; ++i) {
+      rx.interactive().scheduleDirect(() -> {
+        try {
+          blocked.await();
+        } catch (InterruptedException ignored) {
+          // Done waiting
+        }
+      });
+    }
+    rx.playback().scheduleDirect(played::countDown);
+
+    assertThat(played.await(5, TimeUnit.SECONDS), is(true));
+    blocked.countDown();
+  }
+
+  @Test public void retryWithBackoffUntilSuccess() {
+    AtomicInteger attempts = new AtomicInteger();
+    Single<String> request = Single.fromCallable(() -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw new IOException("offline");
+      }
+      return "queue";
+    });
+
+    request.retryWhen(Rx.test().retryWithBackoff(3, 0))
+        .test()
+        .assertValue("queue");
+    assertThat(attempts.get(), is(3));
+  }
+
+  @Test public void retryWithBackoffGivesUp() {
+    AtomicInteger attempts = new AtomicInteger();
+    Single<String> request = Single.fromCallable(() -> {
+      attempts.incrementAndGet();
+      throw new IOException("offline");
+    });
+
+    request.retryWhen(Rx.test().retryWithBackoff(2, 0))
+        .test()
+        .assertError(IOException.class);
+    assertThat(attempts.get(), is(3));
+  }
 }
@@ -33,14 +33,19 @@ public class UrlsTest {
   }
 
   @Test public void createImageTranscodeUrl() {
-    String expected = "https://plex.tv/photo/:/transcode?url=imageKey";
-    String actual = Urls.getTranscodeUrl(HttpUrl.parse("https://plex.tv/"), "imageKey");
+    String expected = "https://plex.tv/photo/:/transcode?url=imageKey&width=8&height=4";
+    HttpUrl url = Urls.getImageTranscodeUrl(HttpUrl.parse("https://plex.tv/"), "imageKey", 8, 4);
+    String actual = url.toString();
     assertThat(actual, is(expected));
   }
 
-  @Test public void addTranscodeDimensionParamsToUrl() {
-    String expected = "https://plex.tv/photo/:/transcode?url=imageKey&width=8&height=4";
-    String actual = Urls.addTranscodeParams("https://plex.tv/photo/:/transcode?url=imageKey", 8, 4);
+  @Test public void createAudioTranscodeUrl() {
+    String expected = "https://plex.tv/music/:/transcode/universal/start.mp3"
+        + "?path=/library/metadata/1337&mediaIndex=0&partIndex=0&protocol=http"
+        + "&directPlay=0&directStream=0&musicBitrate=128";
+    HttpUrl url = Urls.getAudioTranscodeUrl(HttpUrl.parse("https://plex.tv/"),
+        "/library/metadata/1337", 128);
+    String actual = url.toString();
     assertThat(actual, is(expected));
   }
 }